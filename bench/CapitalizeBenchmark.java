@@ -0,0 +1,61 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares answering a CAPITALIZE frame through the message handlers
+ * with the in-place {@link AsciiUpperCase} fast path.
+ */
+public class CapitalizeBenchmark {
+    public static Map<String, Supplier<?>> cases() {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        for (int size : new int[] { 16, 256, 4096 }) {
+            String payload = payload(size);
+            ByteBuffer in = ByteBuffer.wrap(("CAPITALIZE\n" + payload + "\n").getBytes(StandardCharsets.UTF_8));
+            ByteBuffer out = ByteBuffer.allocate(2 * size + 64);
+
+            cases.put("text decode + toUpperCase + encode, " + size + "B", () -> {
+                in.rewind();
+                out.clear();
+                try {
+                    Message request = TextFrameCodec.INSTANCE.decode(in);
+                    String upper = request.getArgs().get(0).toUpperCase();
+                    TextFrameCodec.INSTANCE.encode(new Message("SEND", Collections.singletonList(upper)), out);
+                } catch (java.net.ProtocolException e) {
+                    throw new IllegalStateException(e);
+                }
+                return out;
+            });
+
+            cases.put("text fast path, " + size + "B", () -> {
+                in.rewind();
+                out.clear();
+                TextFrameCodec.INSTANCE.transform(in, "CAPITALIZE", "SEND", AsciiUpperCase.INSTANCE, out);
+                return out;
+            });
+
+            // Selector sockets read into and write from pooled direct buffers
+            ByteBuffer directIn = ByteBuffer.allocateDirect(in.capacity());
+            directIn.put(in.array()).flip();
+            ByteBuffer directOut = ByteBuffer.allocateDirect(out.capacity());
+            cases.put("text fast path, direct buffers, " + size + "B", () -> {
+                directIn.rewind();
+                directOut.clear();
+                TextFrameCodec.INSTANCE.transform(directIn, "CAPITALIZE", "SEND", AsciiUpperCase.INSTANCE, directOut);
+                return directOut;
+            });
+        }
+        return cases;
+    }
+
+    private static String payload(int size) {
+        StringBuilder payload = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        return payload.toString();
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Compares the command lookup and dispatch of the old string tables with
+ * the {@link Command} opcodes and {@link CommandDispatcher}. The legacy
+ * versions are copied here so the comparison survives them being gone
+ * from the code.
+ */
+public class DispatchBenchmark {
+    private static final Set<String> legacyCommands = new HashSet<>();
+    static {
+        for (Command command : Command.values()) {
+            legacyCommands.add(command.name());
+        }
+    }
+
+    public static Map<String, Supplier<?>> cases() {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        for (String command : new String[] { "CAPITALIZE_SEQ", "capitalize_seq", "NOT_A_COMMAND" }) {
+            cases.put("legacy stream scan " + command, () -> legacyIsCommand(command.toUpperCase()));
+            cases.put("Command.of " + command, () -> Command.of(command));
+        }
+
+        int[] handled = new int[Command.values().length];
+        CommandDispatcher dispatcher = new CommandDispatcher();
+        for (Command command : Command.values()) {
+            dispatcher.on(command, message -> handled[message.getType().getOpcode()]++);
+        }
+
+        for (Command command : Arrays.asList(Command.CAPITALIZE, Command.BATCH_RESULT)) {
+            // Decoders build messages with their command already resolved
+            Message message = new Message(command, Collections.singletonList("payload"));
+
+            cases.put("legacy switch " + command, () -> legacyDispatch(message, handled));
+            cases.put("dispatcher " + command, () -> {
+                dispatcher.dispatch(message);
+                return handled;
+            });
+        }
+        return cases;
+    }
+
+    private static boolean legacyIsCommand(String command) {
+        return legacyCommands.stream().filter(v -> v.equals(command.toUpperCase())).count() == 1;
+    }
+
+    private static int[] legacyDispatch(Message message, int[] handled) {
+        // The same shape as the switches dispatch used to go through
+        switch (message.getCommand()) {
+            case "SEND": handled[0]++; break;
+            case "CAPITALIZE": handled[1]++; break;
+            case "HEARTBEAT": handled[2]++; break;
+            case "BROADCAST_HEARTBEAT": handled[3]++; break;
+            case "CLIENT_HEARTBEAT": handled[4]++; break;
+            case "KILL": handled[5]++; break;
+            case "BINARY": handled[6]++; break;
+            case "TEXT": handled[7]++; break;
+            case "CAPITALIZE_SEQ": handled[8]++; break;
+            case "RESULT": handled[9]++; break;
+            case "CAPITALIZE_BATCH": handled[10]++; break;
+            case "BATCH_RESULT": handled[11]++; break;
+        }
+        return handled;
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks {@link Capitalizer#handleMessage(Message)} for the capitalize
+ * commands across payload sizes and Unicode mixes. The socket only keeps
+ * the last response, so the numbers cover the handler and not the I/O.
+ */
+public class HandleMessageBenchmark {
+    public static Map<String, Supplier<?>> cases() {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        RecordingSocket socket = new RecordingSocket();
+        Capitalizer capitalizer = new Capitalizer(1, socket);
+
+        for (String mix : Payloads.MIXES) {
+            for (int size : Payloads.SIZES) {
+                Message request = new Message("CAPITALIZE", Collections.singletonList(Payloads.of(mix, size)));
+                cases.put("CAPITALIZE, " + mix + " " + size + " chars", () -> {
+                    capitalizer.handleMessage(request);
+                    return socket.last;
+                });
+            }
+        }
+
+        Message sequenced = new Message("CAPITALIZE_SEQ", Arrays.asList("42", Payloads.of("ascii", 256)));
+        cases.put("CAPITALIZE_SEQ, ascii 256 chars", () -> {
+            capitalizer.handleMessage(sequenced);
+            return socket.last;
+        });
+
+        List<String> batchArgs = new ArrayList<>(Arrays.asList("42", "16"));
+        for (int i = 0; i < 16; i++) {
+            batchArgs.add(Payloads.of("ascii", 64));
+        }
+        Message batch = new Message("CAPITALIZE_BATCH", batchArgs);
+        cases.put("CAPITALIZE_BATCH, 16 x ascii 64 chars", () -> {
+            capitalizer.handleMessage(batch);
+            return socket.last;
+        });
+        return cases;
+    }
+}
@@ -0,0 +1,39 @@
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import javax.net.ssl.SSLContext;
+
+/** Starts selector servers in the benchmark's own JVM, for benchmarks that need a live connection. */
+final class InProcessServer {
+    private InProcessServer() {
+    }
+
+    /** Starts a headless server on a free port, speaking TLS unless tls is null, and returns the port. */
+    static int start(SSLContext tls) throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+
+        Server server = new Server(port, ServerMode.SELECTOR);
+        server.setHeadless(true);
+        server.setTls(tls);
+        Thread thread = new Thread(server::start, "benchmark-server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+
+        // Wait until it is listening
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return port;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw e;
+                }
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Benchmarks the text protocol paths every message goes through:
+ * {@link Message#serialize()}, {@link Protocol#isCommand(String)} and the
+ * line parsing in {@link ObservableSocket}.
+ */
+public class MessageBenchmark {
+    private static final int BATCH_SIZE = 16;
+
+    public static Map<String, Supplier<?>> cases() throws IOException {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        for (int size : Payloads.SIZES) {
+            Message send = new Message("SEND", Collections.singletonList(Payloads.of("ascii", size)));
+            cases.put("serialize SEND, " + size + " chars", send::serialize);
+        }
+        Message batch = batch(Payloads.of("ascii", 64));
+        cases.put("serialize CAPITALIZE_BATCH, " + BATCH_SIZE + " x 64 chars", batch::serialize);
+
+        for (String command : new String[] { "SEND", "capitalize_batch", "NOT_A_COMMAND" }) {
+            cases.put("isCommand " + command, () -> Protocol.isCommand(command));
+        }
+
+        for (String mix : Payloads.MIXES) {
+            for (int size : Payloads.SIZES) {
+                Message capitalize = new Message("CAPITALIZE", Collections.singletonList(Payloads.of(mix, size)));
+                cases.put("parse CAPITALIZE, " + mix + " " + size + " chars", parsing(capitalize));
+            }
+        }
+        cases.put("parse CAPITALIZE_BATCH, " + BATCH_SIZE + " x 64 chars", parsing(batch));
+        return cases;
+    }
+
+    private static Message batch(String payload) {
+        List<String> args = new ArrayList<>();
+        args.add("1");
+        args.add("" + BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            args.add(payload);
+        }
+        return new Message("CAPITALIZE_BATCH", args);
+    }
+
+    private static Supplier<?> parsing(Message message) throws IOException {
+        byte[] frame = (message.serialize() + "\n").getBytes(StandardCharsets.UTF_8);
+        ObservableSocket socket = new ObservableSocket(new ReplayingSocket(frame), true);
+
+        Message[] parsed = new Message[1];
+        socket.addOnMessageHandler(m -> {
+            parsed[0] = m;
+            return "";
+        });
+
+        return () -> {
+            try {
+                socket.readMessage();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return parsed[0];
+        };
+    }
+
+    /**
+     * A socket whose input is the same frame over and over, so the parser
+     * never waits on the network. Output is discarded.
+     */
+    private static class ReplayingSocket extends Socket {
+        private InputStream in;
+        private OutputStream out;
+
+        ReplayingSocket(byte[] frame) {
+            in = new InputStream() {
+                private int position;
+
+                @Override
+                public int read() {
+                    byte next = frame[position];
+                    position = (position + 1) % frame.length;
+                    return next & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    for (int i = 0; i < length; i++) {
+                        buffer[offset + i] = frame[position];
+                        position = (position + 1) % frame.length;
+                    }
+                    return length;
+                }
+            };
+            out = new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+
+                @Override
+                public void write(byte[] buffer, int offset, int length) {
+                }
+            };
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Upper-cases large payloads on the calling thread and with
+ * {@link ParallelUpperCase}, across sizes, to show the size from which
+ * splitting pays for itself on this machine, which is where the
+ * server's --parallel-threshold belongs.
+ */
+public class ParallelUpperCaseBenchmark {
+    private static final int[] SIZES = { 16 * 1024, 64 * 1024, 256 * 1024, 1024 * 1024, 4 * 1024 * 1024 };
+    // Upper-casing latin1 text grows ß into SS, which is slow enough that larger sizes take minutes to measure
+    private static final int MAX_LATIN1_SIZE = 64 * 1024;
+
+    public static Map<String, Supplier<?>> cases() {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        // Split every payload, so the crossover shows up in the numbers
+        ParallelUpperCase parallel = new ParallelUpperCase(1);
+        for (String mix : new String[] { "ascii", "latin1", "cjk" }) {
+            for (int size : SIZES) {
+                if (mix.equals("latin1") && size > MAX_LATIN1_SIZE) {
+                    continue;
+                }
+                String payload = Payloads.of(mix, size);
+                cases.put("sequential " + mix + " " + size / 1024 + "K", payload::toUpperCase);
+                cases.put("parallel " + mix + " " + size / 1024 + "K", () -> parallel.apply(payload));
+            }
+        }
+        return cases;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Deterministic benchmark payloads. Each mix cycles through a fixed set
+ * of code points so runs are comparable, and sizes are in chars.
+ */
+public final class Payloads {
+    public static final String[] MIXES = { "ascii", "latin1", "greek", "cjk", "emoji" };
+    public static final int[] SIZES = { 16, 256, 4096 };
+
+    private Payloads() {
+    }
+
+    public static String of(String mix, int size) {
+        int[] codePoints = codePoints(mix);
+        StringBuilder payload = new StringBuilder(size);
+        for (int i = 0; payload.length() < size; i++) {
+            int codePoint = codePoints[i % codePoints.length];
+            if (payload.length() + Character.charCount(codePoint) > size) {
+                codePoint = 'a';
+            }
+            payload.appendCodePoint(codePoint);
+        }
+        return payload.toString();
+    }
+
+    private static int[] codePoints(String mix) {
+        switch (mix) {
+            case "ascii":
+                return "the quick brown fox jumps over the lazy dog".codePoints().toArray();
+            case "latin1":
+                // ß upper-cases to two chars and ÿ leaves Latin-1, both miss the fast path
+                return "déjà vu, straße, naïve façade, ÿ".codePoints().toArray();
+            case "greek":
+                return "αβγδ ελληνικά ascii".codePoints().toArray();
+            case "cjk":
+                return "漢字かなカナ 한글 mixed".codePoints().toArray();
+            case "emoji":
+                return "smile 😀 party 🎉 𝒶𝒷𝒸".codePoints().toArray();
+            default:
+                throw new IllegalArgumentException("Unknown payload mix " + mix);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.function.Function;
+
+/**
+ * A socket for benchmarks that keeps the last message sent to it instead
+ * of writing anything, so handler benchmarks don't measure I/O.
+ */
+class RecordingSocket implements MessageSocket {
+    Object last;
+
+    @Override
+    public void addOnMessageHandler(Function<Message, String> handler) {
+    }
+
+    @Override
+    public boolean sendMessage(Message message) {
+        last = message;
+        return true;
+    }
+
+    @Override
+    public boolean sendFrame(EncodedFrame frame) {
+        last = frame;
+        return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void shutdown(Message last) {
+    }
+
+    @Override
+    public void shutdownNow() {
+    }
+
+    @Override
+    public void setOnClose(Exec onClose) {
+    }
+
+    @Override
+    public void setStats(ConnectionStats stats) {
+    }
+
+    @Override
+    public void setRateLimit(TokenBucket rateLimit) {
+    }
+
+    @Override
+    public void setBackpressure(Backpressure backpressure, Exec onDisconnect) {
+    }
+
+    @Override
+    public int getQueuedFrames() {
+        return 0;
+    }
+
+    @Override
+    public long getLastReceivedNanos() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void run() {
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures CAPITALIZE through {@link Capitalizer} with and without the
+ * {@link ResultCache} when requests repeat a working set of payloads.
+ * Request popularity is skewed, a few payloads make up most of the
+ * traffic, and the uncached responses are encoded as a socket would.
+ */
+public class ResultCacheBenchmark {
+    private static final int WORKING_SET = 2048;
+    private static final int REQUESTS = 1 << 16;
+
+    public static Map<String, Supplier<?>> cases() {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        for (String mix : new String[] { "ascii", "greek" }) {
+            for (int size : new int[] { 32, 1024 }) {
+                Message[] requests = requests(mix, size);
+
+                cases.put("no cache, " + mix + " " + size + " chars", capitalizing(requests, null));
+                cases.put("16MB cache, " + mix + " " + size + " chars",
+                        capitalizing(requests, new ResultCache(16L * 1024 * 1024)));
+            }
+        }
+        return cases;
+    }
+
+    private static Supplier<?> capitalizing(Message[] requests, ResultCache cache) {
+        RecordingSocket socket = new RecordingSocket();
+        Capitalizer capitalizer = new Capitalizer(1, socket);
+        capitalizer.setResultCache(cache);
+        int[] next = new int[1];
+
+        return () -> {
+            capitalizer.handleMessage(requests[next[0]++ & (REQUESTS - 1)]);
+
+            // Include the encode, which a cache hit gets for free
+            Object response = socket.last;
+            EncodedFrame frame = response instanceof EncodedFrame
+                    ? (EncodedFrame) response
+                    : EncodedFrame.of((Message) response);
+            return frame.getBytes(TextFrameCodec.INSTANCE);
+        };
+    }
+
+    private static Message[] requests(String mix, int size) {
+        String base = Payloads.of(mix, size - 8);
+        Random random = new Random(42);
+        Message[] requests = new Message[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            // Squaring a uniform value favours small ids, so low ids are the popular payloads
+            double u = random.nextDouble();
+            int id = (int) (u * u * WORKING_SET);
+            requests[i] = new Message(Command.CAPITALIZE, Collections.singletonList(String.format("%08d", id) + base));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Streams multi-line documents through
+ * {@link AsyncCapitalizeClient#capitalizeStream(java.io.Reader, java.io.Writer)}
+ * against a selector server in this process. Before measuring it checks
+ * that each document comes back upper-cased with its line breaks and
+ * backslashes where they were, which the line protocol only carries escaped.
+ */
+public class StreamBenchmark {
+    private static final int DOCUMENT_SIZE = 64 * 1024;
+
+    public static Map<String, Supplier<?>> cases() throws IOException {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        Log.setLevel("warn");
+        // Open for as long as the benchmark's JVM runs
+        AsyncCapitalizeClient client = new AsyncCapitalizeClient("localhost", InProcessServer.start(null), 1);
+
+        for (String mix : new String[] { "ascii", "greek" }) {
+            String document = document(mix);
+            if (!capitalize(client, document).equals(document.toUpperCase())) {
+                throw new IllegalStateException("The " + mix + " document did not survive the round trip");
+            }
+            cases.put("stream " + DOCUMENT_SIZE / 1024 + "K of " + mix + " lines", () -> capitalize(client, document));
+        }
+        return cases;
+    }
+
+    private static String capitalize(AsyncCapitalizeClient client, String document) {
+        StringWriter out = new StringWriter(document.length());
+        try {
+            client.capitalizeStream(new StringReader(document), out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /** Lines of 60 chars ending in \n or \r\n, with a backslash path now and then. */
+    private static String document(String mix) {
+        String line = Payloads.of(mix, 60);
+        StringBuilder document = new StringBuilder(DOCUMENT_SIZE);
+        for (int i = 0; document.length() < DOCUMENT_SIZE; i++) {
+            document.append(line);
+            if (i % 10 == 0) {
+                document.append(" C:\\Users\\").append(i);
+            }
+            document.append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        return document.toString();
+    }
+}
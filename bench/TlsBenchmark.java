@@ -0,0 +1,189 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Compares TLS with plaintext against selector servers running in this
+ * process, using a self-signed certificate made with keytool: connecting
+ * and answering one request, with a full or a resumed handshake, and then
+ * request round trips on a connection that is already open.
+ */
+public class TlsBenchmark {
+    private static final char[] PASSWORD = "benchmark".toCharArray();
+
+    public static Map<String, Supplier<?>> cases() throws Exception {
+        Map<String, Supplier<?>> cases = new LinkedHashMap<>();
+        Log.setLevel("warn");
+        SSLContext tls = Tls.context(selfSignedKeyStore(), PASSWORD);
+        int plainPort = InProcessServer.start(null);
+        int tlsPort = InProcessServer.start(tls);
+        byte[] request = frame(payload(16));
+
+        cases.put("connect + CAPITALIZE, plaintext", () -> {
+            try {
+                return connectAndCapitalize(new Socket("localhost", plainPort), request);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // Make sure each case measures the handshake it says it does. TLS 1.3 gives
+        // a resumed session a new id, but it keeps the original's creation time.
+        long full = capitalizeOverTls(tls, tlsPort, request, false).getCreationTime();
+        long resumable = capitalizeOverTls(tls, tlsPort, request, true).getCreationTime();
+        if (full == resumable || capitalizeOverTls(tls, tlsPort, request, true).getCreationTime() != resumable) {
+            throw new IllegalStateException("The server did not resume the TLS session");
+        }
+
+        cases.put("connect + CAPITALIZE, TLS full handshake",
+                () -> capitalizeOverTls(tls, tlsPort, request, false));
+        cases.put("connect + CAPITALIZE, TLS resumed",
+                () -> capitalizeOverTls(tls, tlsPort, request, true));
+
+        // The connections stay open for as long as the benchmark's JVM runs
+        for (int size : new int[] { 16, 4096 }) {
+            byte[] sized = frame(payload(size));
+            Connection plain = new Connection(new Socket("localhost", plainPort));
+            cases.put("CAPITALIZE round trip, plaintext, " + size + "B", () -> plain.capitalize(sized));
+
+            Connection secure = new Connection(openTls(tls, tlsPort));
+            cases.put("CAPITALIZE round trip, TLS, " + size + "B", () -> secure.capitalize(sized));
+        }
+        return cases;
+    }
+
+    private static int connectAndCapitalize(Socket socket, byte[] request) {
+        Connection connection = new Connection(socket);
+        int answer = connection.capitalize(request);
+        connection.close();
+        return answer;
+    }
+
+    /**
+     * Connects over TLS and answers one request. Unless resumable, the
+     * session is forgotten afterwards so the next connection can't resume
+     * it. That has to wait until the answer is in, TLS 1.3 sends the ticket
+     * to resume with after the handshake.
+     */
+    private static SSLSession capitalizeOverTls(SSLContext tls, int port, byte[] request, boolean resumable) {
+        try {
+            SSLSocket socket = openTls(tls, port);
+            connectAndCapitalize(socket, request);
+            SSLSession session = socket.getSession();
+            if (!resumable) {
+                session.invalidate();
+            }
+            return session;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Makes a key store for localhost the way a user would, with the JDK's keytool. */
+    private static Path selfSignedKeyStore() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("tls-benchmark");
+        Path keyStore = dir.resolve("localhost.p12");
+        String password = new String(PASSWORD);
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localhost", "-keyalg", "RSA", "-keysize", "2048",
+                "-dname", "CN=localhost", "-ext", "san=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", password, "-keypass", password)
+                .inheritIO()
+                .start();
+        if (keytool.waitFor() != 0) {
+            throw new IOException("keytool failed to make a key store");
+        }
+        keyStore.toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        return keyStore;
+    }
+
+    private static SSLSocket openTls(SSLContext tls, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) tls.getSocketFactory().createSocket("localhost", port);
+        socket.setSSLParameters(Tls.verifyingHost(socket.getSSLParameters()));
+        socket.setTcpNoDelay(true);
+        socket.startHandshake();
+        return socket;
+    }
+
+    private static byte[] frame(String payload) {
+        return ("CAPITALIZE\n" + payload + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String payload(int size) {
+        StringBuilder payload = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            payload.append((char) ('a' + i % 26));
+        }
+        return payload.toString();
+    }
+
+    /** A blocking client that skips over the greeting and counts answers by their lines. */
+    private static class Connection {
+        // Two SEND frames welcome every client
+        private static final int GREETING_LINES = 4;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            try {
+                in = new BufferedInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+                skipLines(GREETING_LINES);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** Sends a request frame and waits for its SEND answer, returning the answer's size. */
+        int capitalize(byte[] request) {
+            try {
+                out.write(request);
+                out.flush();
+                return skipLines(2);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to read from it anyway
+            }
+        }
+
+        private int skipLines(int count) throws IOException {
+            int bytes = 0;
+            while (count > 0) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new EOFException("The server hung up");
+                }
+                bytes++;
+                if (b == '\n') {
+                    count--;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package jmh;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the cases of the benchmark classes in the default package under
+ * JMH, each in its own forked JVM with the GC profiler reporting bytes
+ * allocated per operation.
+ *
+ * JMH only accepts benchmarks in a named package, and a named package
+ * can't refer to classes in the default one, so the benchmark classes
+ * build their cases in a static cases() method that is looked up by name.
+ * Every case is a value of the name parameter, "Class: case".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Microbenchmarks {
+    private static final String[] BENCHMARKS = {
+            "MessageBenchmark", "DispatchBenchmark", "HandleMessageBenchmark", "ResultCacheBenchmark",
+            "CapitalizeBenchmark", "ParallelUpperCaseBenchmark", "StreamBenchmark", "TlsBenchmark" };
+    private static final String SEPARATOR = ": ";
+
+    @Param("")
+    public String name;
+
+    private Supplier<?> operation;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        int separator = name.indexOf(SEPARATOR);
+        operation = cases(name.substring(0, separator)).get(name.substring(separator + SEPARATOR.length()));
+        if (operation == null) {
+            throw new IllegalArgumentException("No benchmark case " + name);
+        }
+    }
+
+    @Benchmark
+    public Object run() {
+        // JMH sinks the result, so the JIT can't drop the work
+        return operation.get();
+    }
+
+    /**
+     * Runs the cases of the given comma separated benchmark classes, or of
+     * all of them.
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> benchmarks = args.length > 0 && !args[0].isEmpty()
+                ? Arrays.asList(args[0].split(","))
+                : Arrays.asList(BENCHMARKS);
+
+        List<String> names = new ArrayList<>();
+        for (String benchmark : benchmarks) {
+            for (String name : cases(benchmark).keySet()) {
+                names.add(benchmark + SEPARATOR + name);
+            }
+        }
+
+        new Runner(new OptionsBuilder()
+                .include(Microbenchmarks.class.getName())
+                .param("name", names.toArray(new String[0]))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Supplier<?>> cases(String benchmark) throws ReflectiveOperationException {
+        return (Map<String, Supplier<?>>) Class.forName(benchmark).getMethod("cases").invoke(null);
+    }
+}
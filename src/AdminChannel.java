@@ -0,0 +1,94 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs console commands typed on stdin or sent to a local admin port, for
+ * servers without a window and for scripts. Each line is one command,
+ * and each response is followed by an empty line so a script knows where
+ * it ends:
+ *
+ *     printf 'LIST\nSTATS\n' | nc localhost 9899
+ *
+ * The admin port only listens on the loopback address and has no
+ * authentication, so anyone who can log in to the host can use it.
+ */
+public class AdminChannel {
+    private AdminCommands commands;
+
+    public AdminChannel(AdminCommands commands) {
+        this.commands = commands;
+    }
+
+    /** Reads commands from stdin until it is closed. */
+    public void readStdin() {
+        Thread reader = new Thread(() -> {
+            try {
+                serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                        new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true));
+            } catch (IOException e) {
+                Log.warn("Stopped reading admin commands from stdin: " + e.getMessage());
+            }
+        }, "admin-stdin");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public void listen(int port) throws IOException {
+        ServerSocket listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Log.info("Admin commands accepted on " + listener.getLocalSocketAddress());
+
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket admin = listener.accept();
+                    Thread handler = new Thread(() -> answer(admin), "admin-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    Log.warn("Admin listener stopped: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "admin-listener");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void answer(Socket admin) {
+        try (Socket socket = admin) {
+            serve(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)),
+                    new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true));
+        } catch (IOException e) {
+            // The script went away, nothing to clean up
+        }
+    }
+
+    private void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            // Drop blank lines inside the response, a blank line ends it
+            out.println(execute(line.trim()).replaceAll("\n+", "\n").trim());
+            out.println();
+        }
+    }
+
+    /** Runs a command, answering with the error if it fails so a bad command can't end the session. */
+    private String execute(String commandLine) {
+        try {
+            return commands.execute(commandLine);
+        } catch (RuntimeException e) {
+            Log.warn("Admin command '" + commandLine + "' failed: " + e);
+            return "Command failed: " + e;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The commands typed into the server console, looked up by name ignoring
+ * case. Each command is registered with its usage line, and HELP lists
+ * them in the order they were registered.
+ */
+public class AdminCommands {
+    private Map<String, AdminCommand> commands;
+
+    public AdminCommands() {
+        commands = new LinkedHashMap<>();
+        commands.put("HELP", new AdminCommand(null, args -> help()));
+    }
+
+    /**
+     * Registers a command. The handler gets the command line split on
+     * spaces, with the command itself at index 0, and returns the text to
+     * show the operator.
+     */
+    public AdminCommands register(String name, String usage, Function<String[], String> handler) {
+        commands.put(name.toUpperCase(Locale.ROOT), new AdminCommand(usage, handler));
+        return this;
+    }
+
+    /** The names of the registered commands in the order they were registered, HELP first. */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(commands.keySet());
+    }
+
+    public String getUsage(String name) {
+        AdminCommand command = commands.get(name);
+        return command == null ? null : command.usage;
+    }
+
+    public String execute(String commandLine) {
+        String[] args = commandLine.split(" ");
+        AdminCommand command = commands.get(args[0].toUpperCase(Locale.ROOT));
+        if (command == null) {
+            return "Unknown command!";
+        }
+        return command.handler.apply(args);
+    }
+
+    private String help() {
+        StringBuilder help = new StringBuilder("Available commands:");
+        for (AdminCommand command : commands.values()) {
+            if (command.usage != null) {
+                help.append("\n- ").append(command.usage);
+            }
+        }
+        return help.toString();
+    }
+
+    private static class AdminCommand {
+        private String usage;
+        private Function<String[], String> handler;
+
+        AdminCommand(String usage, Function<String[], String> handler) {
+            this.usage = usage;
+            this.handler = handler;
+        }
+    }
+}
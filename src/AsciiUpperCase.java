@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Upper-cases UTF-8 text byte by byte without decoding it. Handles ASCII
+ * and the Latin-1 letters whose upper case has the same encoded length,
+ * and declines anything else so the caller can fall back to
+ * {@link String#toUpperCase()}.
+ */
+public class AsciiUpperCase implements ByteTransform {
+    public static final AsciiUpperCase INSTANCE = new AsciiUpperCase();
+
+    // These locales case 'i' and friends differently, so only String.toUpperCase gets them right
+    private static final boolean LOCALE_SAFE;
+    // The high bit of every byte in a word, all clear when the word is plain ASCII
+    private static final long ASCII_MASK = 0x8080808080808080L;
+    static {
+        String language = Locale.getDefault().getLanguage();
+        LOCALE_SAFE = !language.equals("tr") && !language.equals("az") && !language.equals("lt");
+    }
+
+    public boolean apply(ByteBuffer src, int length, ByteBuffer dst) {
+        if (!LOCALE_SAFE || dst.remaining() < length) {
+            return false;
+        }
+
+        boolean done;
+        if (src.hasArray() && dst.hasArray()) {
+            // Plain array access is considerably faster than going through the buffers
+            done = apply(src.array(), src.arrayOffset() + src.position(),
+                    dst.array(), dst.arrayOffset() + dst.position(), length);
+        } else {
+            done = apply(src, dst, length);
+        }
+
+        if (done) {
+            src.position(src.position() + length);
+            dst.position(dst.position() + length);
+        }
+        return done;
+    }
+
+    private static boolean apply(byte[] src, int in, byte[] dst, int out, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = src[in + i];
+
+            if (b >= 0) {
+                // ASCII
+                dst[out + i] = (byte) (b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b);
+                continue;
+            }
+            if (i + 1 == length) {
+                return false;
+            }
+
+            int next = upperContinuation(b & 0xFF, src[in + i + 1] & 0xFF);
+            if (next < 0) {
+                return false;
+            }
+            dst[out + i] = (byte) b;
+            dst[out + i + 1] = (byte) next;
+            i++;
+        }
+        return true;
+    }
+
+    private static boolean apply(ByteBuffer src, ByteBuffer dst, int length) {
+        int in = src.position();
+        int out = dst.position();
+        for (int i = 0; i < length; i++) {
+            // Direct buffers pay for every access, so take runs of ASCII a word at a time
+            if (i + Long.BYTES <= length) {
+                long word = src.getLong(in + i);
+                if ((word & ASCII_MASK) == 0) {
+                    dst.putLong(out + i, upperAscii(word));
+                    i += Long.BYTES - 1;
+                    continue;
+                }
+            }
+
+            int b = src.get(in + i);
+
+            if (b >= 0) {
+                // ASCII
+                dst.put(out + i, (byte) (b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b));
+                continue;
+            }
+            if (i + 1 == length) {
+                return false;
+            }
+
+            int next = upperContinuation(b & 0xFF, src.get(in + i + 1) & 0xFF);
+            if (next < 0) {
+                return false;
+            }
+            dst.put(out + i, (byte) b);
+            dst.put(out + i + 1, (byte) next);
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Upper-cases eight ASCII bytes at once. Each byte is cased on its own,
+     * so the byte order the word was read in doesn't matter.
+     */
+    private static long upperAscii(long word) {
+        // The high bit of each byte ends up set where the byte is at least 'a', and where it is past 'z'
+        long atLeastA = word + 0x8080808080808080L - 0x6161616161616161L;
+        long pastZ = word + 0x8080808080808080L - 0x7B7B7B7B7B7B7B7BL;
+        long lower = atLeastA & ~pastZ & ASCII_MASK;
+        // 0x80 shifted down two is the 0x20 between the cases
+        return word ^ (lower >>> 2);
+    }
+
+    /**
+     * Returns the upper case continuation byte for a two byte sequence in
+     * U+0080 to U+00FF, or -1 if the character needs the full casing rules.
+     */
+    private static int upperContinuation(int lead, int next) {
+        if (lead == 0xC2) {
+            // Nothing in U+0080 to U+00BF changes case apart from the micro sign
+            return next == 0xB5 ? -1 : next;
+        }
+        if (lead != 0xC3) {
+            return -1;
+        }
+
+        if (next == 0x9F || next == 0xBF) {
+            // Sharp s becomes "SS" and y with diaeresis leaves Latin-1
+            return -1;
+        }
+        if (next >= 0xA0 && next != 0xB7) {
+            // U+00E0 to U+00FE map 0x20 lower, except the division sign
+            return next - 0x20;
+        }
+        return next;
+    }
+}
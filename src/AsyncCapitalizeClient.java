@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A headless client for the capitalization server. Requests are
+ * pipelined over a small pool of connections and each one returns a
+ * future that completes when its response arrives, so any number of
+ * callers can wait on the server without holding a thread each.
+ *
+ * Responses are matched to requests by sequence number. Requests are
+ * written by a writer thread, never the caller's, and futures complete
+ * on the connection's reader thread, so callers should hand slow work to
+ * their own executor. Messages the server pushes on its own, such as SEND
+ * from the console or KILL, go to the push handler.
+ *
+ * Texts may contain line breaks. The line protocol would take them for
+ * the end of the argument, so they travel escaped, see {@link #escape}.
+ */
+public class AsyncCapitalizeClient implements AutoCloseable {
+    // One timer thread sends the heartbeats of every connection in this process
+    private static final TimingWheel heartbeats = new TimingWheel("client-heartbeats", 100, 64);
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+    private static final int STREAM_CHUNK_CHARS = 16 * 1024;
+    // Chunks of one stream sent but not yet answered
+    private static final int STREAM_WINDOW = 8;
+
+    private Connection[] connections;
+    private AtomicInteger nextConnection;
+    private AtomicInteger nextSequence;
+    private volatile Consumer<Message> onPush;
+
+    public AsyncCapitalizeClient(String host, int port, int poolSize) throws IOException {
+        this(host, port, poolSize, null);
+    }
+
+    /**
+     * A client that speaks TLS, trusting the certificates of tls. The pool's
+     * connections after the first resume its session. Null speaks plaintext.
+     */
+    public AsyncCapitalizeClient(String host, int port, int poolSize, SSLContext tls) throws IOException {
+        nextConnection = new AtomicInteger();
+        nextSequence = new AtomicInteger();
+        onPush = message -> { };
+
+        connections = new Connection[poolSize];
+        try {
+            for (int i = 0; i < poolSize; i++) {
+                connections[i] = new Connection(tls != null ? openTls(tls, host, port) : new Socket(host, port));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** Receives every message that is not a response to a request, on the reader thread. */
+    public void setOnPush(Consumer<Message> onPush) {
+        this.onPush = onPush;
+    }
+
+    public CompletableFuture<String> capitalize(String text) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        int sequence = nextSequence.incrementAndGet();
+
+        nextConnection().send(sequence, result,
+                new Message(Command.CAPITALIZE_SEQ, Arrays.asList("" + sequence, escape(text))));
+        return result;
+    }
+
+    /**
+     * Capitalizes several strings in one request. The results are in the
+     * same order as the texts.
+     */
+    public CompletableFuture<List<String>> capitalizeBatch(List<String> texts) {
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        int sequence = nextSequence.incrementAndGet();
+
+        List<String> args = new ArrayList<>(texts.size() + 2);
+        args.add("" + sequence);
+        args.add("" + texts.size());
+        for (String text : texts) {
+            args.add(escape(text));
+        }
+        nextConnection().send(sequence, result, new Message(Command.CAPITALIZE_BATCH, args));
+        return result;
+    }
+
+    /**
+     * Capitalizes a UTF-8 document of any length, see
+     * {@link #capitalizeStream(Reader, Writer)}. The reader keeps the bytes
+     * of a character split between two reads until the rest arrives.
+     */
+    public long capitalizeStream(InputStream in, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        long written = capitalizeStream(new InputStreamReader(in, StandardCharsets.UTF_8), writer);
+        writer.flush();
+        return written;
+    }
+
+    /**
+     * Capitalizes a document of any length chunk by chunk, writing each
+     * result to out as it comes back. Only a few chunks are in flight at
+     * once, so memory stays the same however long the document is. Chunks
+     * are cut where neither half changes how the other is upper-cased, so
+     * surrogate pairs and combining marks stay with their characters.
+     *
+     * Blocks until the whole document is written and returns the number of
+     * chars written.
+     */
+    public long capitalizeStream(Reader in, Writer out) throws IOException {
+        Connection connection = nextConnection();
+        int sequence = nextSequence.incrementAndGet();
+        String streamId = "" + sequence;
+        Stream stream = new Stream(out);
+
+        try {
+            char[] buffer = new char[STREAM_CHUNK_CHARS];
+            int length = 0;
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+
+                // Hold the last character back until we know whether the next one belongs to it
+                CharBuffer text = CharBuffer.wrap(buffer, 0, length);
+                int split = length > 1 ? TextBoundaries.lastSafeSplit(text, length - 1) : 0;
+                if (split == 0 && length == buffer.length) {
+                    // A whole buffer of combining marks, cutting between them is the best we can do
+                    split = TextBoundaries.lastCodePointSplit(text, length - 1);
+                }
+                if (split == 0) {
+                    continue;
+                }
+
+                stream.awaitWindow();
+                if (stream.isDone()) {
+                    break;
+                }
+                connection.send(sequence, stream, new Message(Command.CAPITALIZE_STREAM,
+                        Arrays.asList(streamId, escape(new String(buffer, 0, split)))));
+                System.arraycopy(buffer, split, buffer, 0, length - split);
+                length -= split;
+            }
+            connection.send(sequence, stream, new Message(Command.STREAM_END,
+                    Arrays.asList(streamId, escape(new String(buffer, 0, length)))));
+
+            return stream.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the stream to finish");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            // Also when reading or sending fails, or the stream would wait for responses forever
+            connection.pending.remove(sequence);
+        }
+    }
+
+    /**
+     * Says goodbye to the server on every connection and closes them.
+     * Requests still waiting for a response fail.
+     */
+    @Override
+    public void close() {
+        for (Connection connection : connections) {
+            if (connection != null) {
+                connection.close();
+            }
+        }
+    }
+
+    private static Socket openTls(SSLContext tls, String host, int port) throws IOException {
+        SSLSocket socket = (SSLSocket) tls.getSocketFactory().createSocket(host, port);
+        socket.setSSLParameters(Tls.verifyingHost(socket.getSSLParameters()));
+        // Handshake flights are several small records in a row, Nagle would hold each back for the server's ack
+        socket.setTcpNoDelay(true);
+        // Fail here rather than on the first request if the server can't be trusted
+        socket.startHandshake();
+        return socket;
+    }
+
+    /**
+     * Escapes line breaks as a backslash and N or R, and backslashes as two.
+     * Upper-casing leaves all three alone, so the server needs no part in it.
+     */
+    private static String escape(String text) {
+        if (text.indexOf('\\') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+            return text;
+        }
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                escaped.append("\\\\");
+            } else if (c == '\n') {
+                escaped.append("\\N");
+            } else if (c == '\r') {
+                escaped.append("\\R");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder unescaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                unescaped.append(next == 'N' ? '\n' : next == 'R' ? '\r' : next);
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+
+    private Connection nextConnection() {
+        return connections[Math.floorMod(nextConnection.getAndIncrement(), connections.length)];
+    }
+
+    private class Connection {
+        private ObservableSocket socket;
+        private TimingWheel.Timeout heartbeat;
+
+        // Requests that are still waiting for a response, by sequence number
+        private Map<Integer, CompletableFuture<?>> pending;
+        private volatile boolean closed;
+        private CommandDispatcher dispatcher;
+
+        Connection(Socket socket) throws IOException {
+            pending = new ConcurrentHashMap<>();
+            dispatcher = new CommandDispatcher()
+                    .on(Command.RESULT, message -> {
+                        CompletableFuture<String> result = takePending(message);
+                        if (result != null) {
+                            result.complete(unescape(message.getArgs().get(1)));
+                        }
+                    })
+                    .on(Command.BATCH_RESULT, message -> {
+                        CompletableFuture<List<String>> result = takePending(message);
+                        if (result != null) {
+                            List<String> results = new ArrayList<>(message.getArgs().size() - 2);
+                            for (String upper : message.getArgs().subList(2, message.getArgs().size())) {
+                                results.add(unescape(upper));
+                            }
+                            result.complete(results);
+                        }
+                    })
+                    .on(Command.STREAM_DATA, message -> {
+                        Stream stream = (Stream) pending.get(sequenceOf(message));
+                        if (stream != null) {
+                            stream.write(unescape(message.getArgs().get(1)));
+                        }
+                    })
+                    .on(Command.STREAM_END, message -> {
+                        Stream stream = (Stream) pending.remove(sequenceOf(message));
+                        if (stream != null) {
+                            stream.write(unescape(message.getArgs().get(1)));
+                            stream.finish();
+                        }
+                    })
+                    .on(Command.KILL, message -> {
+                        // The server is dropping us, nothing in flight will be answered
+                        disconnect();
+                        onPush.accept(message);
+                    })
+                    .otherwise(message -> onPush.accept(message));
+
+            this.socket = new ObservableSocket(socket, true);
+            this.socket.addOnMessageHandler(this::handleMessage);
+            this.socket.setOnClose(this::failPending);
+            // The wheel thread only queues the heartbeat, the socket's writer sends it
+            heartbeat = heartbeats.schedulePeriodic(
+                    () -> this.socket.queueFrame(EncodedFrame.of(new Message(Command.HEARTBEAT, null))),
+                    HEARTBEAT_INTERVAL_MILLIS);
+
+            Thread reader = new Thread(this.socket, "capitalize-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(int sequence, CompletableFuture<?> result, Message request) {
+            pending.put(sequence, result);
+
+            // Check after registering, so a close racing with us either sees the request or is seen here.
+            // The socket's writer sends it, the caller never waits on the network
+            if (closed || !socket.queueFrame(EncodedFrame.of(request))) {
+                pending.remove(sequence);
+                result.completeExceptionally(new IOException(closed
+                        ? "The connection is closed"
+                        : "Too many requests are waiting to be sent"));
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                socket.sendMessage(new Message(Command.KILL, null));
+            }
+            disconnect();
+        }
+
+        private void disconnect() {
+            closed = true;
+            heartbeat.cancel();
+            socket.stop();
+        }
+
+        private String handleMessage(Message message) {
+            dispatcher.dispatch(message);
+            return "";
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T> CompletableFuture<T> takePending(Message message) {
+            return (CompletableFuture<T>) pending.remove(sequenceOf(message));
+        }
+
+        private int sequenceOf(Message message) {
+            return Integer.parseInt(message.getArgs().get(0));
+        }
+
+        private void failPending() {
+            closed = true;
+            heartbeat.cancel();
+            for (Integer sequence : pending.keySet()) {
+                CompletableFuture<?> result = pending.remove(sequence);
+                if (result != null) {
+                    result.completeExceptionally(new IOException("The connection closed before the response arrived"));
+                }
+            }
+        }
+    }
+
+    /**
+     * The receiving end of one stream. Results are written on the reader
+     * thread, and each one frees a place in the window for the sender.
+     */
+    private static class Stream extends CompletableFuture<Long> {
+        private Writer out;
+        private Semaphore window;
+        private long written;
+
+        Stream(Writer out) {
+            this.out = out;
+            window = new Semaphore(STREAM_WINDOW);
+        }
+
+        void awaitWindow() throws InterruptedIOException {
+            try {
+                window.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to send a chunk");
+            }
+        }
+
+        void write(String chunk) {
+            if (!isDone()) {
+                try {
+                    out.write(chunk);
+                    written += chunk.length();
+                } catch (IOException e) {
+                    completeExceptionally(e);
+                }
+            }
+            window.release();
+        }
+
+        void finish() {
+            try {
+                out.flush();
+                complete(written);
+            } catch (IOException e) {
+                completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable failure) {
+            boolean failed = super.completeExceptionally(failure);
+            // Wake the sender so it notices
+            window.release(STREAM_WINDOW);
+            return failed;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Appends log lines to a file from a background thread, so logging never
+ * waits for the disk. Lines are queued and written in batches with one
+ * flush per batch. If the disk falls so far behind that the queue fills
+ * up, new lines are dropped and counted rather than blocking the caller.
+ */
+public class AsyncLogWriter implements Consumer<String>, AutoCloseable {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final long POLL_MILLIS = 100;
+
+    private Path file;
+    private Writer out;
+    private BlockingQueue<String> queue;
+    private AtomicLong dropped;
+    private volatile boolean closed;
+    private Thread writer;
+
+    public AsyncLogWriter(Path file) throws IOException {
+        this.file = file;
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        dropped = new AtomicLong();
+
+        writer = new Thread(this::writeLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void accept(String line) {
+        if (closed || !queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** Writes out the lines already queued and closes the file. */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (!closed || !queue.isEmpty()) {
+                String first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+
+                for (String line : batch) {
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            Log.error("Failed to write to log file " + file + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                if (dropped.get() > 0) {
+                    out.write("Dropped " + dropped.get() + " log lines while the disk was behind\n");
+                }
+                out.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close log file " + file + ": " + e.getMessage());
+            }
+        }
+    }
+}
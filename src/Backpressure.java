@@ -0,0 +1,51 @@
+import java.util.Locale;
+
+/**
+ * What a connection does when its peer stops keeping up with the output.
+ * A connection falls behind once more than the high watermark of encoded
+ * bytes is waiting for the peer, and catches up again once the queue
+ * drains below the low watermark. The gap keeps a consumer that hovers
+ * around one watermark from counting as a new slow consumer every frame.
+ */
+public class Backpressure {
+    public enum Policy {
+        /** Throws away the oldest waiting frames until the queue is down to the low watermark. */
+        DROP_OLDEST,
+        /** Throws away waiting heartbeats, and new ones until caught up, but keeps everything else. */
+        COALESCE_HEARTBEATS,
+        /** Kills the client, the same as the KILL console command. */
+        DISCONNECT
+    }
+
+    private long highWatermark;
+    private long lowWatermark;
+    private Policy policy;
+
+    public Backpressure(long highWatermark, long lowWatermark, Policy policy) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark) {
+            throw new IllegalArgumentException("The low watermark " + lowWatermark
+                    + " must be between 0 and the high watermark " + highWatermark);
+        }
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.policy = policy;
+    }
+
+    public long getHighWatermark() {
+        return highWatermark;
+    }
+
+    public long getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        return policy.name().toLowerCase(Locale.ROOT) + " above " + highWatermark / 1024 + "KB until below "
+                + lowWatermark / 1024 + "KB";
+    }
+}
@@ -0,0 +1,150 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length prefixed framing negotiated with the BINARY command: a one byte
+ * opcode from {@link Command} followed by each argument as a four byte
+ * length and its UTF-8 bytes. Arguments may contain newlines.
+ */
+public class BinaryFrameCodec implements FrameCodec {
+    public static final BinaryFrameCodec INSTANCE = new BinaryFrameCodec();
+
+    public int encodedLength(Message message) {
+        int length = 1;
+        if (message.getArgs() != null) {
+            for (String arg : message.getArgs()) {
+                length += 4 + Utf8.encodedLength(arg);
+            }
+        }
+        return length;
+    }
+
+    public boolean encode(Message message, ByteBuffer out) {
+        Command command = message.getType();
+        if (command == null) {
+            throw new IllegalArgumentException("No opcode for command " + message.getCommand());
+        }
+        if (encodedLength(message) > out.remaining()) {
+            return false;
+        }
+
+        out.put((byte) command.getOpcode());
+        if (message.getArgs() != null) {
+            for (String arg : message.getArgs()) {
+                int lengthPosition = out.position();
+                out.position(lengthPosition + 4);
+                Utf8.encode(arg, out);
+                out.putInt(lengthPosition, out.position() - lengthPosition - 4);
+            }
+        }
+        return true;
+    }
+
+    public Message decode(ByteBuffer in) throws ProtocolException {
+        if (!in.hasRemaining()) {
+            return null;
+        }
+        int start = in.position();
+
+        // Unlike text frames a bad opcode can't be skipped, we no longer know where the next frame starts
+        int opcode = in.get() & 0xFF;
+        Command command = Command.of(opcode);
+        if (command == null) {
+            throw new ProtocolException("Unknown opcode " + opcode);
+        }
+
+        int argCount = command.getArgCount();
+        List<String> args = new ArrayList<>(argCount);
+        for (int i = 0; i < argCount; i++) {
+            if (in.remaining() < 4) {
+                in.position(start);
+                return null;
+            }
+            int length = in.getInt();
+            if (length < 0 || length > MAX_FRAME_SIZE) {
+                throw new ProtocolException("Invalid argument length " + length);
+            }
+            if (in.remaining() < length) {
+                // Wait for the rest of the frame
+                in.position(start);
+                return null;
+            }
+            args.add(Utf8.decode(in, length));
+
+            // Counted commands announce how many more arguments follow in their last fixed argument
+            if (i == command.getArgCount() - 1 && command.isCounted()) {
+                argCount += Protocol.countedArgs(args.get(i));
+            }
+        }
+        return new Message(command, args);
+    }
+
+    public int scan(ByteBuffer in, FrameScan scan) throws ProtocolException {
+        int start = in.position();
+        if (scan.parts == 0) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            int opcode = in.get(start) & 0xFF;
+            scan.command = Command.of(opcode);
+            if (scan.command == null) {
+                throw new ProtocolException("Unknown opcode " + opcode);
+            }
+            scan.expectedParts = scan.command.getArgCount() + 1;
+            scan.scanned = 1;
+            scan.parts = 1;
+        }
+
+        // Jump from one length to the next, only a counted command's count is decoded
+        while (scan.parts < scan.expectedParts) {
+            int available = in.limit() - start - scan.scanned;
+            if (available < 4) {
+                return -1;
+            }
+            int length = in.getInt(start + scan.scanned);
+            if (length < 0) {
+                throw new ProtocolException("Invalid argument length " + length);
+            }
+            if (length > MAX_FRAME_SIZE - scan.scanned - 4) {
+                throw new ProtocolException("Frame longer than " + MAX_FRAME_SIZE + " bytes");
+            }
+            if (available - 4 < length) {
+                return -1;
+            }
+            if (scan.command.isCounted() && scan.parts == scan.command.getArgCount()) {
+                ByteBuffer count = in.duplicate();
+                count.position(start + scan.scanned + 4);
+                scan.expectedParts += Protocol.countedArgs(Utf8.decode(count, length));
+            }
+            scan.scanned += 4 + length;
+            scan.parts++;
+        }
+        return scan.scanned;
+    }
+
+    public boolean transform(ByteBuffer in, String command, String response, ByteTransform transform, ByteBuffer out) {
+        int start = in.position();
+        if (in.remaining() < 5 || in.get(start) != (byte) Command.of(command).getOpcode()) {
+            return false;
+        }
+        int length = in.getInt(start + 1);
+        if (length < 0 || in.remaining() - 5 < length || out.remaining() < 5) {
+            return false;
+        }
+
+        int outStart = out.position();
+        out.put((byte) Command.of(response).getOpcode());
+        out.position(outStart + 5);
+
+        in.position(start + 5);
+        if (!transform.apply(in, length, out)) {
+            in.position(start);
+            out.position(outStart);
+            return false;
+        }
+        out.putInt(outStart + 1, out.position() - outStart - 5);
+        return true;
+    }
+}
@@ -0,0 +1,40 @@
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sends one message to many clients. The message is encoded once into a
+ * shared frame, queued for every recipient and written out by each
+ * connection's own writer, so one slow client holds up nobody else.
+ */
+public class Broadcaster {
+    private Broadcaster() {
+    }
+
+    /**
+     * Queues the message for every recipient and returns right away. The
+     * result completes with the nanoseconds until every recipient had
+     * written the frame to its connection, or thrown it away because the
+     * client was too far behind or gone.
+     */
+    public static CompletableFuture<Long> broadcast(Message message, List<Capitalizer> recipients) {
+        long start = System.nanoTime();
+        CompletableFuture<Long> delivered = new CompletableFuture<>();
+        if (recipients.isEmpty()) {
+            delivered.complete(0L);
+            return delivered;
+        }
+
+        // Encode up front so the recipients don't race to do it
+        EncodedFrame frame = EncodedFrame.shared(message);
+        frame.getBytes(TextFrameCodec.INSTANCE);
+        frame.whenSettled(recipients.size(), () -> delivered.complete(System.nanoTime() - start));
+
+        // Queueing never writes, so a plain loop is quick however many recipients there are
+        for (Capitalizer recipient : recipients) {
+            if (!recipient.queueFrame(frame)) {
+                frame.settled();
+            }
+        }
+        return delivered;
+    }
+}
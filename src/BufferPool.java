@@ -0,0 +1,129 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct buffers shared by every connection in the process, in power of
+ * two size classes. Connections borrow a buffer only while bytes are in
+ * flight and give it back once it is empty, so idle connections hold
+ * none. Being direct, the socket reads into them and the codecs parse
+ * them in place, without the copy through the JDK's own temporary direct
+ * buffer that a heap buffer costs on every read and write.
+ *
+ * Requests larger than the biggest class get a heap buffer of their own,
+ * which the garbage collector takes back. Each class keeps a bounded
+ * number of free buffers and lets any beyond that go.
+ */
+public class BufferPool {
+    public static final BufferPool DEFAULT = new BufferPool(8 * 1024, 8, 16 * 1024 * 1024);
+
+    private SizeClass[] classes;
+    private int minShift;
+    private LongAdder allocatedBytes;
+    private LongAdder borrowed;
+
+    /**
+     * A pool whose classes are minSize, twice that and so on, classCount
+     * of them, each keeping up to maxFreeBytesPerClass of free buffers.
+     * minSize must be a power of two.
+     */
+    public BufferPool(int minSize, int classCount, long maxFreeBytesPerClass) {
+        if (Integer.bitCount(minSize) != 1) {
+            throw new IllegalArgumentException("The smallest buffer size " + minSize + " is not a power of two");
+        }
+        minShift = Integer.numberOfTrailingZeros(minSize);
+        classes = new SizeClass[classCount];
+        for (int i = 0; i < classCount; i++) {
+            int size = minSize << i;
+            classes[i] = new SizeClass(size, (int) Math.max(1, maxFreeBytesPerClass / size));
+        }
+        allocatedBytes = new LongAdder();
+        borrowed = new LongAdder();
+    }
+
+    /** Borrows an empty buffer of at least minCapacity bytes, in fill mode. */
+    public ByteBuffer acquire(int minCapacity) {
+        int index = classOf(minCapacity);
+        if (index >= classes.length) {
+            return ByteBuffer.allocate(minCapacity);
+        }
+
+        SizeClass sizeClass = classes[index];
+        ByteBuffer buffer;
+        synchronized (sizeClass) {
+            buffer = sizeClass.free.pollFirst();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(sizeClass.size);
+            allocatedBytes.add(sizeClass.size);
+        }
+        borrowed.increment();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back. The caller must not touch it afterwards, the
+     * next borrower may already be writing to it.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        int index = classOf(buffer.capacity());
+        if (index >= classes.length || classes[index].size != buffer.capacity()) {
+            return;
+        }
+
+        borrowed.decrement();
+        buffer.clear();
+        SizeClass sizeClass = classes[index];
+        synchronized (sizeClass) {
+            if (sizeClass.free.size() < sizeClass.maxFree) {
+                // Most recently used first, it is the most likely to still be in cache
+                sizeClass.free.addFirst(buffer);
+            }
+        }
+    }
+
+    /** Moves the contents of buffer, in fill mode, into a borrowed buffer of at least minCapacity. */
+    public ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer grown = acquire(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        grown.put(buffer);
+        release(buffer);
+        return grown;
+    }
+
+    /** Direct memory allocated by the pool so far, whether borrowed, free or let go. */
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    /** The number of pooled buffers borrowed right now. */
+    public long getBorrowed() {
+        return borrowed.sum();
+    }
+
+    public String summary() {
+        return getBorrowed() + " borrowed, " + getAllocatedBytes() / 1024 + "KB allocated";
+    }
+
+    private int classOf(int capacity) {
+        if (capacity <= 1 << minShift) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - minShift;
+    }
+
+    private static class SizeClass {
+        int size;
+        int maxFree;
+        ArrayDeque<ByteBuffer> free;
+
+        SizeClass(int size, int maxFree) {
+            this.size = size;
+            this.maxFree = maxFree;
+            free = new ArrayDeque<>();
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Rewrites an argument straight from a receive buffer into a send buffer.
+ */
+public interface ByteTransform {
+    /**
+     * Transforms the next length bytes of src into dst, advancing both.
+     * Returns false if the input can't be handled this way or dst is too
+     * small, in which case the caller resets both buffers and falls back
+     * to decoding the message.
+     */
+    boolean apply(ByteBuffer src, int length, ByteBuffer dst);
+}
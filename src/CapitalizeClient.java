@@ -3,35 +3,43 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import javax.swing.JCheckBox;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 /**
  * A simple Swing-based client for the capitalization server.
  * It has a main frame window with a text field for entering
  * strings and a textarea to see the results of capitalizing
- * them.
+ * them. Talking to the server is left to {@link AsyncCapitalizeClient},
+ * this class only shows what comes back.
  */
 public class CapitalizeClient {
 
     private JFrame frame = new JFrame("Capitalize Client");
     private JTextField dataField = new JTextField(40);
     private JTextArea messageArea = new JTextArea(8, 60);
+    // Batching is opt in, so text that happens to contain '|' is still capitalized as it is
+    private JCheckBox batchBox = new JCheckBox("Send '|' separated strings as one batch");
 
-    private ObservableSocket socket;
+    private AsyncCapitalizeClient client;
 
-    private HeartBeatTask heartBeatTask;
+    private CommandDispatcher pushes = new CommandDispatcher()
+            // Display plain messages as they are
+            .on(Command.SEND, message -> show(message.getArgs().get(0)))
+            .on(Command.KILL, message -> SwingUtilities.invokeLater(this::closeWindow))
+            .on(Command.CLIENT_HEARTBEAT, message ->
+                    System.out.println("Received heartbeat from client with id: " + message.getArgs().get(0)))
+            .otherwise(message -> show("Unknown response command: " + message.getCommand()));
 
     /**
      * Constructs the client by laying out the GUI and registering a
@@ -44,6 +52,7 @@ public class CapitalizeClient {
         messageArea.setEditable(false);
         frame.getContentPane().add(dataField, "North");
         frame.getContentPane().add(new JScrollPane(messageArea), "Center");
+        frame.getContentPane().add(batchBox, "South");
 
         // Add Listeners
         dataField.addActionListener(new ActionListener() {
@@ -53,15 +62,17 @@ public class CapitalizeClient {
              * server and displaying the response from the server
              * in the text area.  If the response is "." we exit
              * the whole application, which closes all sockets,
-             * streams and windows.
+             * streams and windows.  With the batch box ticked,
+             * strings separated by '|' are sent as a single batch.
              */
             public void actionPerformed(ActionEvent e) {
                 if (dataField.getText().toUpperCase().equals("KILL")) {
-                    socket.sendMessage(new Message("KILL", new ArrayList<>()));
+                    client.close();
+                    closeWindow();
+                } else if (batchBox.isSelected()) {
+                    capitalizeBatch(Arrays.asList(dataField.getText().split("\\|")));
                 } else {
-                    List<String> messageText = new ArrayList<>();
-                    messageText.add(dataField.getText());
-                    socket.sendMessage(new Message("CAPITALIZE", messageText));
+                    capitalize(dataField.getText());
                 }
                 dataField.selectAll();
             }
@@ -70,9 +81,7 @@ public class CapitalizeClient {
         frame.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent windowEvent) {
-                socket.sendMessage(new Message("KILL", null));
-                socket.stop();
-                heartBeatTask.stop();
+                client.close();
             }
         });
 
@@ -102,20 +111,9 @@ public class CapitalizeClient {
     public void connectToServer(String serverAddress) {
         // Make connection
         try {
-            Socket socket = new Socket(serverAddress, 9898);
-
-            // Create the observable socket
-            this.socket = new ObservableSocket(socket);
-
-            // Bind the message handler
-            this.socket.addOnMessageHandler(this::handleMessage);
-
-            // Start the socket thread
-            new Thread(this.socket).start();
-
-            // Create a heartbeat task that will run every second
-            heartBeatTask = new HeartBeatTask(this.socket);
-            new Thread(heartBeatTask).start();
+            // One connection is plenty for a person typing
+            client = new AsyncCapitalizeClient(serverAddress, 9898, 1);
+            client.setOnPush(pushes::dispatch);
 
             // Display the UI
             frame.setVisible(true);
@@ -125,65 +123,43 @@ public class CapitalizeClient {
         }
     }
 
-    private String handleMessage(Message message) {
-        switch (message.getCommand()) {
-            case "SEND":
-                // If the message is a 'SEND' type message simply display the arguments in the UI
-                messageArea.append(message.getArgs().get(0) + "\n");
-                break;
-            case "KILL":
-                // Kill the client if the proper response is sent
-                // First clean up the socket thread
-                this.socket.stop();
-
-                // Then clean up the UI
-                this.frame.setVisible(false);
-                this.frame.dispose();
-
-                // Exit the process
-                frame.dispose();
-                break;
-            case "CLIENT_HEARTBEAT":
-                // Print received heartbeat
-                System.out.println("Received heartbeat from client with id: " + message.getArgs().get(0));
-                break;
-            default:
-                messageArea.append("Unknown response command: " + message.getCommand() + "\n");
-        }
-        return "";
+    /**
+     * Capitalizes a string without waiting for earlier requests to be
+     * answered, and shows the result when it arrives.
+     */
+    public CompletableFuture<String> capitalize(String text) {
+        return client.capitalize(text).whenComplete((upper, error) -> {
+            if (error != null) {
+                show("Failed to capitalize " + text + ": " + error.getMessage());
+            } else {
+                show(text + " -> " + upper);
+            }
+        });
     }
 
-    private class HeartBeatTask implements Runnable {
-        ObservableSocket s;
-        boolean shouldRun = true;
-
-        HeartBeatTask(ObservableSocket s) {
-            this.s = s;
-        }
-
-        @Override
-        public void run() {
-            int i = 0;
-            while(shouldRun) {
-                // Send heartbeat every second
-                s.sendMessage(new Message("HEARTBEAT", null));
-
-                // Send heartbeat to all clients every 5th loop
-//                if (i == 4) {
-//                    s.sendMessage(new Message("BROADCAST_HEARTBEAT", null));
-//                }
-
-                try {
-                    Thread.sleep(1000);
-                    i = (i + 1) % 5;
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+    /**
+     * Capitalizes several strings in one request and shows the results
+     * when they arrive.
+     */
+    public CompletableFuture<List<String>> capitalizeBatch(List<String> texts) {
+        return client.capitalizeBatch(texts).whenComplete((results, error) -> {
+            if (error != null) {
+                show("Failed to capitalize " + texts + ": " + error.getMessage());
+                return;
             }
-        }
+            for (int i = 0; i < results.size(); i++) {
+                show(texts.get(i) + " -> " + results.get(i));
+            }
+        });
+    }
 
-        public void stop() {
-            shouldRun = false;
-        }
+    private void show(String line) {
+        // Responses complete on the connection's thread, Swing components belong to the event thread
+        SwingUtilities.invokeLater(() -> messageArea.append(line + "\n"));
+    }
+
+    private void closeWindow() {
+        this.frame.setVisible(false);
+        this.frame.dispose();
     }
 }
\ No newline at end of file
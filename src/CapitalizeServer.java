@@ -1,3 +1,9 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+
 /**
  * A server program which accepts requests from clients to
  * capitalize strings.  When clients connect, a new thread is
@@ -18,9 +24,114 @@ public class CapitalizeServer {
      * to listening.  The server keeps a unique client number for each
      * client that connects just to show interesting logging
      * messages.  It is certainly not necessary to do this.
+     *
+     * The first argument picks how connections are serviced: "thread_pool"
+     * (the default), "virtual" for a virtual thread per client on Java 21,
+     * or "selector" for a few event loop threads shared by all clients.
+     * The optional second argument is the size of the result cache for
+     * repeated payloads in megabytes, 0 (the default) turns it off.
+     *
+     * Options after those: "--port" for the client port, and "--node i
+     * --cluster host:port,..." to run as node i of a cluster whose nodes
+     * listen for each other's admin commands on the given addresses.
+     * "--parallel-threshold" sets the payload length in chars from which
+     * payloads are upper-cased on several cores, 0 (the default) turns
+     * that off.
+     * "--log-level" is one of error, warn, info (the default) or debug,
+     * and "--log-file" also appends the console log to the given file.
+     * "--headless" runs without a window and reads console commands from
+     * stdin, and "--admin-port" also accepts them on a local port.
+     *
+     * Overload options: "--max-connections" turns away clients beyond that
+     * many, "--backlog" sets the accept queue length, and "--rate-limit"
+     * limits each client to that many messages per second, with bursts of
+     * "--burst" messages (the rate by default). "--slow-consumer" is one
+     * of disconnect (the default), drop_oldest or coalesce_heartbeats, for
+     * clients with more than "--high-watermark" KB of output waiting,
+     * until they are back under "--low-watermark" KB. "--drain-timeout"
+     * is how many seconds STOP and KILLALL give clients to receive the
+     * answers to what they already sent, 5 by default.
+     *
+     * "--tls-keystore" speaks TLS to clients with the key and certificate
+     * in the given PKCS12 or JKS key store, unlocked by "--tls-password".
+     * It needs the selector mode.
      */
     public static void main(String[] args) {
-        Server server = new Server( 9898);
+        // Positional arguments come before the options
+        int positional = 0;
+        while (positional < args.length && !args[positional].startsWith("--")) {
+            positional++;
+        }
+        Map<String, String> options = Options.parse(args, positional);
+        if (options.containsKey("log-level")) {
+            Log.setLevel(options.get("log-level"));
+        }
+
+        ServerMode mode = ServerMode.THREAD_POOL;
+        if (positional > 0) {
+            mode = ServerMode.valueOf(args[0].toUpperCase());
+        }
+
+        if (options.containsKey("headless")) {
+            // Nothing should load AWT, this makes sure anything that does can't open a display
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        Server server = new Server(Integer.parseInt(options.getOrDefault("port", "9898")), mode);
+        server.setHeadless(options.containsKey("headless"));
+        if (options.containsKey("backlog")) {
+            server.setBacklog(Integer.parseInt(options.get("backlog")));
+        }
+        if (options.containsKey("max-connections")) {
+            server.setMaxConnections(Integer.parseInt(options.get("max-connections")));
+        }
+        if (options.containsKey("rate-limit")) {
+            double rate = Double.parseDouble(options.get("rate-limit"));
+            server.setRateLimit(rate, Integer.parseInt(options.getOrDefault("burst", "" + (int) Math.max(1, rate))));
+        }
+        if (options.containsKey("slow-consumer") || options.containsKey("high-watermark")
+                || options.containsKey("low-watermark")) {
+            long high = Long.parseLong(options.getOrDefault("high-watermark", "1024")) * 1024;
+            long low = Long.parseLong(options.getOrDefault("low-watermark", "" + high / 4 / 1024)) * 1024;
+            server.setBackpressure(new Backpressure(high, low, Backpressure.Policy.valueOf(
+                    options.getOrDefault("slow-consumer", "disconnect").toUpperCase(Locale.ROOT))));
+        }
+        if (options.containsKey("drain-timeout")) {
+            server.setDrainTimeout((long) (Double.parseDouble(options.get("drain-timeout")) * 1000));
+        }
+        if (options.containsKey("admin-port")) {
+            server.setAdminPort(Integer.parseInt(options.get("admin-port")));
+        }
+        if (positional > 1 && Integer.parseInt(args[1]) > 0) {
+            server.setResultCache(new ResultCache(Integer.parseInt(args[1]) * 1024L * 1024L));
+        }
+        if (options.containsKey("parallel-threshold")) {
+            server.setParallelUpperCase(new ParallelUpperCase(Integer.parseInt(options.get("parallel-threshold"))));
+        }
+        if (options.containsKey("log-file")) {
+            try {
+                server.setLogFile(Paths.get(options.get("log-file")));
+            } catch (IOException e) {
+                System.out.println("Failed to open the log file: " + e.getMessage());
+                return;
+            }
+        }
+        if (options.containsKey("tls-keystore")) {
+            try {
+                server.setTls(Tls.context(Paths.get(options.get("tls-keystore")),
+                        options.getOrDefault("tls-password", "").toCharArray()));
+            } catch (IOException | GeneralSecurityException e) {
+                System.out.println("Failed to load the TLS key store: " + e.getMessage());
+                return;
+            }
+        }
+        if (options.containsKey("cluster")) {
+            server.setCluster(new Cluster(Integer.parseInt(options.getOrDefault("node", "0")),
+                    Options.parseAddresses(options.get("cluster"))));
+        }
         server.start();
+
+        // The window, the admin port and stdin each keep a thread alive
+        System.exit(0);
     }
 }
\ No newline at end of file
@@ -1,36 +1,142 @@
-import java.io.IOException;
-import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class Capitalizer {
     private int id;
-    private ObservableSocket socket;
+    private MessageSocket socket;
     private Exec onExit;
+    private Exec onClose;
     private Exec onBroadcast;
+    private TimingWheel.Timeout livenessCheck;
+    private CommandDispatcher dispatcher;
+    private ResultCache resultCache;
+    private ParallelUpperCase parallelUpperCase;
+    private ConnectionStats stats;
+    private CountDownLatch closed;
 
-    Capitalizer(int id, Socket socket) throws IOException {
+    Capitalizer(int id, MessageSocket socket) {
         this.id = id;
-        this.socket = new ObservableSocket(socket);
+        this.socket = socket;
+        parallelUpperCase = ParallelUpperCase.DEFAULT;
+        closed = new CountDownLatch(1);
+        socket.setOnClose(this::onClosed);
+
+        // Register a handler per command, anything else the client sends is ignored
+        dispatcher = new CommandDispatcher()
+                .on(Command.CAPITALIZE, this::capitalize)
+                .on(Command.CAPITALIZE_SEQ, this::capitalizeSequenced)
+                .on(Command.CAPITALIZE_BATCH, this::capitalizeBatch)
+                .on(Command.CAPITALIZE_STREAM, message -> capitalizeStreamChunk(Command.STREAM_DATA, message))
+                .on(Command.STREAM_END, message -> capitalizeStreamChunk(Command.STREAM_END, message))
+                .on(Command.KILL, message -> {
+                    onExit.exec();
+                    stop();
+                })
+                .on(Command.HEARTBEAT, message -> {
+                    if (Log.isDebugEnabled()) {
+                        Log.debug("Received heartbeat from " + id);
+                    }
+                })
+                .on(Command.BROADCAST_HEARTBEAT, message -> {
+                    Log.debug("Received broadcast heartbeat from " + id);
+                    onBroadcast.exec();
+                });
 
         // Bind message handler to observable socket
         this.socket.addOnMessageHandler(this::handleMessage);
+
+        // Capitalize ASCII and Latin-1 payloads without decoding them where the socket supports it
+        this.socket.addFastPath("CAPITALIZE", "SEND", AsciiUpperCase.INSTANCE);
     }
 
     public void setOnExit(Exec onExit) {
         this.onExit = onExit;
     }
 
+    /** Runs once the connection has closed, however it came to close. */
+    public void setOnClose(Exec onClose) {
+        this.onClose = onClose;
+    }
+
     public void setOnBroadcast(Exec onBroadcast) {
         this.onBroadcast = onBroadcast;
     }
 
+    /** Answers repeated payloads from the cache, which may be shared by every client. */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /** Upper-cases payloads above the transform's threshold on several cores. */
+    public void setParallelUpperCase(ParallelUpperCase parallelUpperCase) {
+        this.parallelUpperCase = parallelUpperCase;
+    }
+
+    /**
+     * Counts this client's messages, bytes and handler time, and the
+     * connection itself among the server's open connections until it closes.
+     */
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+        socket.setStats(stats);
+        stats.getServer().connectionOpened();
+    }
+
+    /** Limits how many messages per second this client may send, see {@link MessageSocket#setRateLimit}. */
+    public void setRateLimit(TokenBucket rateLimit) {
+        socket.setRateLimit(rateLimit);
+    }
+
+    /** Applies the slow consumer policy to this client's output, disconnecting it through the exit handler. */
+    public void setBackpressure(Backpressure backpressure) {
+        socket.setBackpressure(backpressure, () -> {
+            Log.info("Client " + id + " is not reading its output, disconnecting");
+            onExit.exec();
+        });
+    }
+
+    public ConnectionStats getStats() {
+        return stats;
+    }
+
+    public int getQueuedFrames() {
+        return socket.getQueuedFrames();
+    }
+
     public void start() {
         // Send welcome message to client
         sendMessage("You are client number: " + id + ".");
         sendMessage("Send kill to terminate the current connection.");
     }
 
+    /**
+     * Checks every interval that the client has sent something, heartbeats
+     * included, and disconnects it through the exit handler on evictor once
+     * it has been silent for maxMissed intervals. Stopping a client may
+     * write to it, which the wheel's thread must never wait on.
+     */
+    public void watchLiveness(TimingWheel wheel, long intervalMillis, int maxMissed, Executor evictor) {
+        long maxSilenceNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis * maxMissed);
+
+        livenessCheck = wheel.schedulePeriodic(() -> {
+            if (System.nanoTime() - socket.getLastReceivedNanos() > maxSilenceNanos) {
+                livenessCheck.cancel();
+                Log.info("Client " + id + " missed " + maxMissed + " heartbeats, disconnecting");
+                try {
+                    evictor.execute(onExit::exec);
+                } catch (RejectedExecutionException e) {
+                    // The server is shutting down, which disconnects the client anyway
+                }
+            }
+        }, intervalMillis);
+    }
+
     public Runnable getThreadRunnable() {
         return this.socket;
     }
@@ -40,37 +146,114 @@ public class Capitalizer {
     }
 
     public void stop() {
+        if (livenessCheck != null) {
+            livenessCheck.cancel();
+        }
         socket.sendMessage(new Message("KILL", null));
         socket.stop();
     }
 
+    /**
+     * Disconnects the client once it has the answers to the requests it
+     * already sent, see {@link MessageSocket#shutdown}. Unlike stop, nothing
+     * the client sends from now on is read.
+     */
+    public void shutdown() {
+        if (livenessCheck != null) {
+            livenessCheck.cancel();
+        }
+        socket.shutdown(new Message("KILL", null));
+    }
+
+    /** Closes the connection right away, for clients that take too long to shut down. */
+    public void shutdownNow() {
+        socket.shutdownNow();
+    }
+
+    /** Waits up to timeoutNanos for the connection to close. Returns whether it did. */
+    public boolean awaitClosed(long timeoutNanos) throws InterruptedException {
+        return closed.await(timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void onClosed() {
+        // A peer that hung up isn't silent, it's gone
+        if (livenessCheck != null) {
+            livenessCheck.cancel();
+        }
+        if (stats != null) {
+            stats.getServer().connectionClosed();
+        }
+        closed.countDown();
+        if (onClose != null) {
+            onClose.exec();
+        }
+    }
+
     public void sendMessage(String message) {
-        List<String> args = new ArrayList<>();
-        args.add(message);
-        socket.sendMessage(new Message("SEND", args));
+        socket.sendMessage(new Message("SEND", Collections.singletonList(message)));
     }
 
     public void sendMessage(Message message) {
         socket.sendMessage(message);
     }
 
-    private String handleMessage(Message message) {
-        switch (message.getCommand()) {
-            case "CAPITALIZE":
-                sendMessage(message.getArgs().get(0).toUpperCase());
-                break;
-            case "KILL":
-                onExit.exec();
-                stop();
-                break;
-            case "HEARTBEAT":
-                System.out.println("Received heartbeat from " + id);
-                break;
-            case "BROADCAST_HEARTBEAT":
-                System.out.println("Received broadcast heartbeat from " + id);
-                onBroadcast.exec();
-                break;
+    /**
+     * Queues a frame without writing it on the calling thread. Returns false
+     * if the socket refused it.
+     */
+    public boolean queueFrame(EncodedFrame frame) {
+        return socket.queueFrame(frame);
+    }
+
+    // Package-private so the benchmarks can call it without a live connection
+    String handleMessage(Message message) {
+        long start = System.nanoTime();
+        dispatcher.dispatch(message);
+        if (stats != null) {
+            stats.handled(System.nanoTime() - start);
         }
         return "";
     }
+
+    private void capitalize(Message message) {
+        String payload = message.getArgs().get(0);
+        if (resultCache != null && !parallelUpperCase.isParallel(payload)) {
+            // The cached frame is already encoded, so a hit skips the upper-casing and the encode
+            socket.sendFrame(resultCache.capitalize(payload));
+        } else {
+            sendMessage(parallelUpperCase.apply(payload));
+        }
+    }
+
+    private void capitalizeSequenced(Message message) {
+        // Echo the sequence number so pipelining clients can match the response
+        socket.sendMessage(new Message(Command.RESULT,
+                Arrays.asList(message.getArgs().get(0), upperCase(message.getArgs().get(1)))));
+    }
+
+    private void capitalizeBatch(Message message) {
+        // Answer the whole batch in one frame with the same sequence number and count header
+        List<String> results = new ArrayList<>(message.getArgs().size());
+        results.add(message.getArgs().get(0));
+        results.add(message.getArgs().get(1));
+        for (int i = 2; i < message.getArgs().size(); i++) {
+            results.add(upperCase(message.getArgs().get(i)));
+        }
+        socket.sendMessage(new Message(Command.BATCH_RESULT, results));
+    }
+
+    private void capitalizeStreamChunk(Command response, Message message) {
+        // Clients cut streams between characters, so each chunk is forwarded as soon as it arrives
+        // and nothing is kept between chunks. Chunks skip the cache, they are rarely repeated
+        socket.sendMessage(new Message(response,
+                Arrays.asList(message.getArgs().get(0), parallelUpperCase.apply(message.getArgs().get(1)))));
+    }
+
+    private String upperCase(String payload) {
+        // Payloads big enough to split are far too big to cache
+        if (resultCache == null || parallelUpperCase.isParallel(payload)) {
+            return parallelUpperCase.apply(payload);
+        }
+        return resultCache.capitalize(payload).getMessage().getArgs().get(0);
+    }
 }
@@ -0,0 +1,20 @@
+/**
+ * Whatever an {@link EventLoop} finds attached to a ready channel's key.
+ * All methods run on the event loop thread and must not block.
+ */
+public interface ChannelHandler {
+    void onReadable();
+
+    void onWritable();
+
+    /** Called when a non-blocking connect can be finished, for handlers that register for it. */
+    default void onConnectable() {
+    }
+
+    /**
+     * Called after one of the other methods threw, to close the channel and
+     * release whatever depends on it. The loop closes the channel anyway.
+     */
+    default void onFailed() {
+    }
+}
@@ -1,8 +1,18 @@
+/**
+ * Puts load on the server. By default this runs the headless
+ * {@link LoadGenerator} with the given options, "--gui" opens 320 Swing
+ * clients instead.
+ */
 public class ClientRunner {
-    public static void main(String[] args) {
-        for (int i = 0; i < 320; i++) {
-            CapitalizeClient client = new CapitalizeClient();
-            client.connectToServer("localhost");
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--gui")) {
+            for (int i = 0; i < 320; i++) {
+                CapitalizeClient client = new CapitalizeClient();
+                client.connectToServer("localhost");
+            }
+            return;
         }
+
+        LoadGenerator.main(args);
     }
 }
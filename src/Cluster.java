@@ -0,0 +1,272 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This node's view of a cluster of servers behind a {@link Router}.
+ *
+ * Every node knows the admin address of every node, its own included,
+ * in the same order. Node i hands out client ids i + 1, i + 1 + n,
+ * i + 1 + 2n and so on for n nodes, so ids are unique across the cluster
+ * and any node can tell which node owns a client from its id alone.
+ *
+ * Console commands are routed over the admin channel: commands for one
+ * client go to the node that owns it, commands for everyone go to every
+ * node. A node only ever runs commands from its peers against its own
+ * clients, so nothing is forwarded twice. The admin channel has no
+ * authentication, so admin ports must only be reachable by other nodes.
+ */
+public class Cluster {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 10000;
+
+    private int nodeIndex;
+    private List<InetSocketAddress> adminAddresses;
+    private Map<Integer, PeerConnection> peers;
+
+    public Cluster(int nodeIndex, List<InetSocketAddress> adminAddresses) {
+        if (nodeIndex < 0 || nodeIndex >= adminAddresses.size()) {
+            throw new IllegalArgumentException("Node " + nodeIndex + " is not one of the "
+                    + adminAddresses.size() + " cluster nodes");
+        }
+        this.nodeIndex = nodeIndex;
+        this.adminAddresses = adminAddresses;
+        peers = new LinkedHashMap<>();
+        for (int i = 0; i < adminAddresses.size(); i++) {
+            if (i != nodeIndex) {
+                peers.put(i, new PeerConnection(adminAddresses.get(i)));
+            }
+        }
+    }
+
+    public int getNodeIndex() {
+        return nodeIndex;
+    }
+
+    public int getNodeCount() {
+        return adminAddresses.size();
+    }
+
+    /** The first client id this node hands out, later ones follow every {@link #getNodeCount()}. */
+    public int getFirstClientId() {
+        return nodeIndex + 1;
+    }
+
+    /** Returns the node that owns the client, or -1 if no client can have that id. */
+    public int ownerOf(int clientId) {
+        return clientId < 1 ? -1 : (clientId - 1) % getNodeCount();
+    }
+
+    /**
+     * Accepts admin connections from the other nodes and answers their
+     * commands with the local command set.
+     */
+    public void listen(AdminCommands local) throws IOException {
+        ServerSocket listener = new ServerSocket(adminAddresses.get(nodeIndex).getPort());
+
+        Thread acceptor = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket peer = listener.accept();
+                    Thread handler = new Thread(() -> answer(peer, local), "cluster-peer");
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    Log.warn("Cluster admin listener stopped: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "cluster-admin");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void answer(Socket peer, AdminCommands local) {
+        try (Socket socket = peer) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            while (true) {
+                writeString(out, local.execute(readString(in)));
+            }
+        } catch (IOException e) {
+            // The peer went away, it reconnects on its next command
+        }
+    }
+
+    /**
+     * Wraps the local command set so that client commands reach the
+     * clients wherever they are connected. HELP and STOP stay local.
+     */
+    public AdminCommands route(AdminCommands local) {
+        AdminCommands routed = new AdminCommands();
+        for (String name : local.getNames()) {
+            switch (name) {
+                case "HELP":
+                    break;
+                case "SEND":
+                case "KILL":
+                    routed.register(name, local.getUsage(name), args -> toOwner(args, local));
+                    break;
+                case "STATS":
+                    // Everyone's totals, or just the owner's view of one client
+                    routed.register(name, local.getUsage(name),
+                            args -> args.length < 2 ? toAll(args, local) : toOwner(args, local));
+                    break;
+                case "SENDMANY":
+                    routed.register(name, local.getUsage(name), args -> toOwners(args, local));
+                    break;
+                case "STOP":
+                    routed.register(name, local.getUsage(name), args -> local.execute(String.join(" ", args)));
+                    break;
+                default:
+                    routed.register(name, local.getUsage(name), args -> toAll(args, local));
+            }
+        }
+        return routed;
+    }
+
+    private String toOwner(String[] args, AdminCommands local) {
+        String commandLine = String.join(" ", args);
+        if (args.length < 2) {
+            return local.execute(commandLine);
+        }
+
+        int owner;
+        try {
+            owner = ownerOf(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            owner = -1;
+        }
+        if (owner < 0) {
+            return "Invalid client id " + args[1];
+        }
+        return execute(owner, commandLine, local);
+    }
+
+    private String toOwners(String[] args, AdminCommands local) {
+        if (args.length < 3) {
+            return local.execute(String.join(" ", args));
+        }
+
+        // Split the ids by owner and send each node one SENDMANY for its own clients
+        Map<Integer, List<String>> idsByOwner = new LinkedHashMap<>();
+        for (String id : args[1].split(",")) {
+            int owner;
+            try {
+                owner = ownerOf(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                owner = -1;
+            }
+            if (owner < 0) {
+                return "Invalid client id " + id;
+            }
+            idsByOwner.computeIfAbsent(owner, node -> new ArrayList<>()).add(id);
+        }
+
+        String message = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+        StringBuilder response = new StringBuilder();
+        for (Map.Entry<Integer, List<String>> owner : idsByOwner.entrySet()) {
+            String commandLine = args[0] + " " + String.join(",", owner.getValue()) + " " + message;
+            appendNodeResponse(response, owner.getKey(), execute(owner.getKey(), commandLine, local));
+        }
+        return response.toString();
+    }
+
+    private String toAll(String[] args, AdminCommands local) {
+        String commandLine = String.join(" ", args);
+        StringBuilder response = new StringBuilder();
+        for (int node = 0; node < getNodeCount(); node++) {
+            appendNodeResponse(response, node, execute(node, commandLine, local));
+        }
+        return response.toString();
+    }
+
+    private void appendNodeResponse(StringBuilder response, int node, String nodeResponse) {
+        if (response.length() > 0) {
+            response.append("\n");
+        }
+        response.append("Node ").append(node).append(": ").append(nodeResponse);
+    }
+
+    private String execute(int node, String commandLine, AdminCommands local) {
+        if (node == nodeIndex) {
+            return local.execute(commandLine);
+        }
+        return peers.get(node).execute(commandLine);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        // Length prefixed rather than writeUTF, a LIST of many clients is longer than 64KB
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The connection to one peer's admin channel, opened on first use and
+     * reopened once if the peer restarted since.
+     */
+    private static class PeerConnection {
+        private InetSocketAddress address;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        PeerConnection(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        synchronized String execute(String commandLine) {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    if (socket == null) {
+                        connect();
+                    }
+                    writeString(out, commandLine);
+                    return readString(in);
+                } catch (IOException e) {
+                    disconnect();
+                    if (attempt == 1) {
+                        return "Node at " + address + " is unreachable: " + e.getMessage();
+                    }
+                }
+            }
+            return "Node at " + address + " is unreachable";
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket();
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            in = new DataInputStream(socket.getInputStream());
+            out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        private void disconnect() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.warn("Failed to close cluster connection: " + e.getMessage());
+                }
+                socket = null;
+            }
+        }
+    }
+}
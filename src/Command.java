@@ -0,0 +1,86 @@
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Every command in the protocol with the number of argument lines it
+ * takes. The position of a command is its opcode, which is what binary
+ * frames carry and what {@link CommandDispatcher} indexes its handlers
+ * by, so new commands must only be appended.
+ */
+public enum Command {
+    SEND(1),
+    CAPITALIZE(1),
+    HEARTBEAT(0),
+    BROADCAST_HEARTBEAT(0),
+    CLIENT_HEARTBEAT(1),
+    KILL(0),
+    BINARY(0),
+    TEXT(0),
+    CAPITALIZE_SEQ(2),
+    RESULT(2),
+    // The last fixed argument of these is the number of extra argument lines that follow
+    CAPITALIZE_BATCH(2, true),
+    BATCH_RESULT(2, true),
+    // Streams carry a stream id and one chunk of text, see AsyncCapitalizeClient.capitalizeStream
+    CAPITALIZE_STREAM(2),
+    STREAM_DATA(2),
+    STREAM_END(2);
+
+    private static final Command[] byOpcode = values();
+    private static final Map<String, Command> byName;
+    static {
+        byName = new HashMap<>();
+        for (Command command : byOpcode) {
+            byName.put(command.name(), command);
+        }
+    }
+
+    private int argCount;
+    private boolean counted;
+
+    Command(int argCount) {
+        this(argCount, false);
+    }
+
+    Command(int argCount, boolean counted) {
+        this.argCount = argCount;
+        this.counted = counted;
+    }
+
+    public int getOpcode() {
+        return ordinal();
+    }
+
+    /** The number of fixed arguments, before any counted ones. */
+    public int getArgCount() {
+        return argCount;
+    }
+
+    public boolean isCounted() {
+        return counted;
+    }
+
+    /** True for the heartbeats, where a newer one says everything an older one did. */
+    public boolean isHeartbeat() {
+        return this == HEARTBEAT || this == BROADCAST_HEARTBEAT || this == CLIENT_HEARTBEAT;
+    }
+
+    /**
+     * Looks a command up by name ignoring case, or returns null if there
+     * is no such command. Names are only upper-cased when the exact lookup
+     * misses, so well-formed frames don't allocate.
+     */
+    public static Command of(String name) {
+        Command command = byName.get(name);
+        if (command == null) {
+            command = byName.get(name.toUpperCase(Locale.ROOT));
+        }
+        return command;
+    }
+
+    /** Returns the command with the given opcode, or null if there is none. */
+    public static Command of(int opcode) {
+        return opcode >= 0 && opcode < byOpcode.length ? byOpcode[opcode] : null;
+    }
+}
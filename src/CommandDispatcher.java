@@ -0,0 +1,38 @@
+import java.util.function.Consumer;
+
+/**
+ * Routes messages to the handler registered for their command with one
+ * array lookup by opcode. Messages without a handler go to the fallback,
+ * which ignores them unless one is set.
+ */
+public class CommandDispatcher {
+    private Consumer<Message>[] handlers;
+    private Consumer<Message> fallback;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public CommandDispatcher() {
+        handlers = (Consumer<Message>[]) new Consumer[Command.values().length];
+        fallback = message -> { };
+    }
+
+    /** Registers the handler for a command, replacing any earlier one. */
+    public CommandDispatcher on(Command command, Consumer<Message> handler) {
+        handlers[command.getOpcode()] = handler;
+        return this;
+    }
+
+    /** Registers the handler for commands that have no handler of their own. */
+    public CommandDispatcher otherwise(Consumer<Message> handler) {
+        fallback = handler;
+        return this;
+    }
+
+    public void dispatch(Message message) {
+        Command command = message.getType();
+        Consumer<Message> handler = command == null ? null : handlers[command.getOpcode()];
+        if (handler == null) {
+            handler = fallback;
+        }
+        handler.accept(message);
+    }
+}
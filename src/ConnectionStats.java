@@ -0,0 +1,80 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one connection. Its socket counts messages and bytes as
+ * they pass, and every count also goes to the server-wide
+ * {@link ServerStats}.
+ */
+public class ConnectionStats {
+    private ServerStats server;
+    private LongAdder messagesIn;
+    private LongAdder messagesOut;
+    private LongAdder bytesIn;
+    private LongAdder bytesOut;
+    private LongAdder throttled;
+    private LongAdder slowConsumer;
+    private LongAdder droppedFrames;
+
+    public ConnectionStats(ServerStats server) {
+        this.server = server;
+        messagesIn = new LongAdder();
+        messagesOut = new LongAdder();
+        bytesIn = new LongAdder();
+        bytesOut = new LongAdder();
+        throttled = new LongAdder();
+        slowConsumer = new LongAdder();
+        droppedFrames = new LongAdder();
+    }
+
+    public ServerStats getServer() {
+        return server;
+    }
+
+    public void received(Command command) {
+        messagesIn.increment();
+        server.received(command);
+    }
+
+    public void sent(Command command) {
+        messagesOut.increment();
+        server.sent(command);
+    }
+
+    public void read(long bytes) {
+        bytesIn.add(bytes);
+        server.read(bytes);
+    }
+
+    public void wrote(long bytes) {
+        bytesOut.add(bytes);
+        server.wrote(bytes);
+    }
+
+    /** Counts a pause in reading because the client ran out of rate limit tokens. */
+    public void throttled() {
+        throttled.increment();
+        server.throttled();
+    }
+
+    /** Counts the client falling behind on its output, once each time until it catches up. */
+    public void slowConsumer() {
+        slowConsumer.increment();
+        server.slowConsumer();
+    }
+
+    /** Counts frames thrown away instead of sent because the client fell behind. */
+    public void dropped(long frames) {
+        droppedFrames.add(frames);
+        server.dropped(frames);
+    }
+
+    public void handled(long nanos) {
+        server.handled(nanos);
+    }
+
+    public String summary() {
+        return "messages in=" + messagesIn.sum() + " out=" + messagesOut.sum()
+                + " bytes in=" + bytesIn.sum() + " out=" + bytesOut.sum() + " throttled=" + throttled.sum()
+                + " slow=" + slowConsumer.sum() + " dropped=" + droppedFrames.sum();
+    }
+}
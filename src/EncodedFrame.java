@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A message on its way to one or more peers. A shared frame is encoded
+ * at most once per framing and every recipient copies the same bytes,
+ * so fanning a message out to many clients costs one encode.
+ */
+public class EncodedFrame {
+    private Message message;
+    private boolean shared;
+
+    // Filled in lazily, a race only means a frame is occasionally encoded twice
+    private volatile byte[] text;
+    private volatile byte[] binary;
+    // Outbound queues ask for the text length when a frame is queued and again when it leaves
+    private volatile int textLength = -1;
+
+    // Recipients that still hold the frame, for fan-outs that want to know when they are done
+    private AtomicInteger unsettled;
+    private Exec onSettled;
+
+    private EncodedFrame(Message message, boolean shared) {
+        this.message = message;
+        this.shared = shared;
+    }
+
+    /** A frame for a single recipient, encoded straight into its write buffer. */
+    public static EncodedFrame of(Message message) {
+        return new EncodedFrame(message, false);
+    }
+
+    /** A frame for many recipients, encoded once and then copied. */
+    public static EncodedFrame shared(Message message) {
+        return new EncodedFrame(message, true);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Runs onSettled once the given number of recipients have each written
+     * the frame to their connection or thrown it away. Call this before
+     * queueing the frame anywhere.
+     */
+    public void whenSettled(int recipients, Exec onSettled) {
+        this.onSettled = onSettled;
+        unsettled = new AtomicInteger(recipients);
+    }
+
+    /** Called by a recipient once the frame is written or will never be. */
+    public void settled() {
+        AtomicInteger unsettled = this.unsettled;
+        if (unsettled != null && unsettled.decrementAndGet() == 0) {
+            onSettled.exec();
+        }
+    }
+
+    public int encodedLength(FrameCodec codec) {
+        byte[] bytes = cached(codec);
+        if (bytes != null) {
+            return bytes.length;
+        }
+        if (codec == BinaryFrameCodec.INSTANCE) {
+            return codec.encodedLength(message);
+        }
+        if (textLength < 0) {
+            textLength = codec.encodedLength(message);
+        }
+        return textLength;
+    }
+
+    /**
+     * Writes the frame into out. Returns false and leaves out untouched if
+     * there is not enough room for the whole frame.
+     */
+    public boolean writeTo(FrameCodec codec, ByteBuffer out) {
+        byte[] bytes = cached(codec);
+        if (bytes == null) {
+            return codec.encode(message, out);
+        }
+        if (bytes.length > out.remaining()) {
+            return false;
+        }
+        out.put(bytes);
+        return true;
+    }
+
+    /**
+     * Returns the encoded frame. Callers must not modify the array, shared
+     * frames hand the same one to every recipient.
+     */
+    public byte[] getBytes(FrameCodec codec) {
+        byte[] bytes = cached(codec);
+        if (bytes == null) {
+            bytes = encode(codec);
+        }
+        return bytes;
+    }
+
+    private byte[] cached(FrameCodec codec) {
+        byte[] bytes = codec == BinaryFrameCodec.INSTANCE ? binary : text;
+        if (bytes == null && shared) {
+            bytes = encode(codec);
+        }
+        return bytes;
+    }
+
+    private byte[] encode(FrameCodec codec) {
+        ByteBuffer buffer = ByteBuffer.allocate(codec.encodedLength(message));
+        codec.encode(message, buffer);
+        byte[] bytes = buffer.array();
+
+        if (shared) {
+            if (codec == BinaryFrameCodec.INSTANCE) {
+                binary = bytes;
+            } else {
+                text = bytes;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread that owns a selector and services every channel
+ * registered with it. The thread only wakes up when one of its channels
+ * is ready, when another thread hands it a task, or when a scheduled
+ * task is due.
+ */
+public class EventLoop implements Runnable {
+    private Selector selector;
+    private Queue<Runnable> tasks;
+    // Only touched by the loop thread
+    private PriorityQueue<ScheduledTask> scheduled;
+    private volatile boolean shouldRun = true;
+    private volatile Thread thread;
+
+    public EventLoop() throws IOException {
+        selector = Selector.open();
+        tasks = new ConcurrentLinkedQueue<>();
+        scheduled = new PriorityQueue<>();
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Queues a task to run on the event loop thread. Tasks run in the
+     * order they were submitted.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+
+        // The loop thread never sleeps with tasks queued, so only other threads need to wake it
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /** Runs a task on the event loop thread once the delay has passed. */
+    public void schedule(Runnable task, long delayNanos) {
+        long due = System.nanoTime() + delayNanos;
+        execute(() -> scheduled.add(new ScheduledTask(task, due)));
+    }
+
+    public void stop() {
+        shouldRun = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while (shouldRun) {
+            try {
+                // Block until a channel is ready or the next scheduled task is due, unless there is already work waiting
+                if (!tasks.isEmpty()) {
+                    selector.selectNow();
+                } else if (scheduled.isEmpty()) {
+                    selector.select();
+                } else {
+                    long waitNanos = scheduled.peek().due - System.nanoTime();
+                    if (waitNanos > 0) {
+                        // select(0) would block forever, so round up to at least a millisecond
+                        selector.select(Math.max(1, waitNanos / 1_000_000));
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+            } catch (IOException e) {
+                Log.error("Event loop failed to select: " + e.getMessage());
+                break;
+            }
+
+            // Run all tasks handed to us by other threads
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runTask(task);
+            }
+            long now = System.nanoTime();
+            while (!scheduled.isEmpty() && scheduled.peek().due - now <= 0) {
+                runTask(scheduled.poll().task);
+            }
+
+            // Dispatch readiness events to the handler attached to each channel
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                ChannelHandler handler = (ChannelHandler) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) {
+                        handler.onConnectable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        handler.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handler.onWritable();
+                    }
+                } catch (RuntimeException e) {
+                    // Only this channel is broken, the others on the loop carry on
+                    Log.error("Channel handler failed: " + e.getMessage());
+                    e.printStackTrace();
+                    fail(key, handler);
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close selector: " + e.getMessage());
+        }
+    }
+
+    private static void runTask(Runnable task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Log.error("Event loop task failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void fail(SelectionKey key, ChannelHandler handler) {
+        try {
+            handler.onFailed();
+        } catch (RuntimeException e) {
+            Log.error("Channel handler failed to clean up: " + e.getMessage());
+        }
+
+        // In case the handler didn't close it
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Log.warn("Failed to close channel: " + e.getMessage());
+        }
+    }
+
+    private static class ScheduledTask implements Comparable<ScheduledTask> {
+        private Runnable task;
+        private long due;
+
+        ScheduledTask(Runnable task, long due) {
+            this.task = task;
+            this.due = due;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            return Long.compare(due - other.due, 0);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of event loops that connections are spread across in
+ * round-robin order.
+ */
+public class EventLoopGroup {
+    private EventLoop[] loops;
+    private AtomicInteger nextLoop;
+
+    public EventLoopGroup(int threads) throws IOException {
+        loops = new EventLoop[threads];
+        nextLoop = new AtomicInteger();
+
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop();
+
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public EventLoop next() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    public void stop() {
+        for (EventLoop loop : loops) {
+            loop.stop();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures what idle connections cost in each {@link ServerMode}.
+ *
+ * Run "serve <mode> <port>" in one process and "connect <host> <port>
+ * <count>" in another. The serving side accepts connections the same way
+ * the server does, minus the Swing console, and reports the live thread
+ * count, heap and resident memory every few seconds.
+ */
+public class FootprintRunner {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("serve")) {
+            serve(ServerMode.valueOf(args[1].toUpperCase()), Integer.parseInt(args[2]));
+        } else if (args.length == 4 && args[0].equals("connect")) {
+            connect(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        } else {
+            System.out.println("Usage: FootprintRunner serve <mode> <port> | connect <host> <port> <count>");
+        }
+    }
+
+    private static void serve(ServerMode mode, int port) throws Exception {
+        ServerSocket listener;
+        if (mode == ServerMode.SELECTOR) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(port), 1024);
+            listener = channel.socket();
+        } else {
+            listener = new ServerSocket(port, 1024);
+        }
+
+        ExecutorService pool = mode == ServerMode.VIRTUAL
+                ? (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)
+                : Executors.newCachedThreadPool();
+        EventLoopGroup eventLoops = mode == ServerMode.SELECTOR
+                ? new EventLoopGroup(Runtime.getRuntime().availableProcessors())
+                : null;
+        AtomicInteger connections = new AtomicInteger();
+
+        Thread reporter = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                report(mode, connections.get());
+            }
+        });
+        reporter.setDaemon(true);
+        reporter.start();
+
+        while (true) {
+            Socket socket = listener.accept();
+            MessageSocket messageSocket;
+            if (mode == ServerMode.SELECTOR) {
+                messageSocket = new SelectorSocket(socket.getChannel(), eventLoops.next());
+            } else {
+                messageSocket = new ObservableSocket(socket, mode == ServerMode.VIRTUAL);
+            }
+
+            Capitalizer capitalizer = new Capitalizer(connections.incrementAndGet(), messageSocket);
+            capitalizer.setOnExit(() -> { });
+            if (mode == ServerMode.SELECTOR) {
+                capitalizer.getThreadRunnable().run();
+            } else {
+                pool.execute(capitalizer.getThreadRunnable());
+            }
+            capitalizer.start();
+        }
+    }
+
+    private static void report(ServerMode mode, int connections) {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heapKb = (runtime.totalMemory() - runtime.freeMemory()) / 1024;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        System.out.println(mode + ": connections=" + connections
+                + " platformThreads=" + threads
+                + " heapUsedKb=" + heapKb
+                + " rssKb=" + residentKb());
+    }
+
+    private static long residentKb() {
+        // Only available on Linux, which is where we measure
+        try (BufferedReader status = new BufferedReader(new FileReader("/proc/self/status"))) {
+            String line;
+            while ((line = status.readLine()) != null) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static void connect(String host, int port, int count) throws Exception {
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sockets.add(new Socket(host, port));
+        }
+        System.out.println("Opened " + sockets.size() + " idle connections, press Ctrl+C to close them");
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,44 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns messages into frames on the wire and back. Codecs are stateless
+ * and work directly against the caller's buffers, any progress on a
+ * partial frame is kept by the caller in a {@link FrameScan}.
+ */
+public interface FrameCodec {
+    /** Frames larger than this are treated as a protocol violation. */
+    int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    int encodedLength(Message message);
+
+    /**
+     * Writes the message into out. Returns false and leaves out untouched
+     * if there is not enough room for the whole frame.
+     */
+    boolean encode(Message message, ByteBuffer out);
+
+    /**
+     * Looks for the end of the next frame in in without moving its position,
+     * starting where the previous call on the same frame stopped. Returns the
+     * frame's length once all of it has arrived, or -1 until then. Throws if
+     * the frame is larger than MAX_FRAME_SIZE, so callers never buffer more.
+     */
+    int scan(ByteBuffer in, FrameScan scan) throws ProtocolException;
+
+    /**
+     * Reads the next complete frame from in. Returns null if in only holds
+     * part of a frame, in which case its position is left unchanged. Invalid
+     * frames that can be skipped are consumed and also return null.
+     */
+    Message decode(ByteBuffer in) throws ProtocolException;
+
+    /**
+     * Fast path for single argument frames that skips building a message.
+     * If the next frame in in is a complete command frame, its argument is
+     * run through transform straight into a response frame in out and the
+     * frame is consumed. Returns false, leaving both buffers as they were,
+     * if the frame doesn't match, doesn't fit or the transform declines.
+     */
+    boolean transform(ByteBuffer in, String command, String response, ByteTransform transform, ByteBuffer out);
+}
@@ -0,0 +1,25 @@
+/**
+ * How far a {@link FrameCodec} got looking for the end of a frame that
+ * hasn't all arrived yet, so the next read carries on from there instead
+ * of scanning the frame again from its start. Offsets are relative to the
+ * start of the frame. Reset it once the frame has been consumed.
+ */
+public class FrameScan {
+    // Bytes of the frame already looked at
+    int scanned;
+    // Where the line being scanned starts
+    int partStart;
+    // Lines, or the opcode and arguments, found complete so far
+    int parts;
+    // How many parts the frame has, known once the command is
+    int expectedParts;
+    Command command;
+
+    public void reset() {
+        scanned = 0;
+        partStart = 0;
+        parts = 0;
+        expectedParts = 0;
+        command = null;
+    }
+}
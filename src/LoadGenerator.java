@@ -0,0 +1,293 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.net.ssl.SSLContext;
+
+/**
+ * A headless load generator for the capitalization server. It opens many
+ * connections on a couple of event loops, sends CAPITALIZE_SEQ requests
+ * and measures the round trip of each one.
+ *
+ * Options, all optional:
+ *   --host localhost --port 9898   server to load
+ *   --connections 100              connections to open
+ *   --rate 0                       requests per second across all connections, 0 sends as fast as
+ *                                  responses come back
+ *   --depth 1                      requests in flight per connection
+ *   --payload 16                   payload size in characters, either fixed "16", uniform "16-256"
+ *                                  or exponential "exp:64" with the given mean
+ *   --unicode 0                    fraction of payloads with non Latin-1 characters
+ *   --warmup 5 --duration 30       seconds to warm up and then to measure
+ *   --seed 42                      seed for the payloads, the same seed sends the same requests
+ *   --binary                       negotiate binary framing
+ *   --threads 2                    event loop threads
+ *   --tls keystore.p12             speak TLS, trusting the certificates in the key store
+ *   --tls-password secret          the key store's password
+ *
+ * With a fixed rate, latency is measured from when each request was due
+ * rather than when it was sent, so a server that stalls is not flattered
+ * by requests that queued up behind the stall.
+ */
+public class LoadGenerator {
+    private static final int PAYLOAD_POOL_SIZE = 1024;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+
+    private String host;
+    private int port;
+    private int connectionCount;
+    private int rate;
+    private int depth;
+    private String payloadSpec;
+    private double unicodeFraction;
+    private int warmupSeconds;
+    private int durationSeconds;
+    private long seed;
+    private boolean binary;
+    private int threads;
+    private String tlsKeyStore;
+    private String tlsPassword;
+
+    private SSLContext tls;
+    private String[] payloads;
+    private String[] expected;
+    private Connection[] connections;
+    private LatencyHistogram histogram;
+    private LongAdder completed;
+    private LongAdder mismatched;
+    private LongAdder unsent;
+    private volatile boolean running = true;
+
+    public LoadGenerator(Map<String, String> options) {
+        host = options.getOrDefault("host", "localhost");
+        port = Integer.parseInt(options.getOrDefault("port", "9898"));
+        connectionCount = Integer.parseInt(options.getOrDefault("connections", "100"));
+        rate = Integer.parseInt(options.getOrDefault("rate", "0"));
+        depth = Integer.parseInt(options.getOrDefault("depth", "1"));
+        payloadSpec = options.getOrDefault("payload", "16");
+        unicodeFraction = Double.parseDouble(options.getOrDefault("unicode", "0"));
+        warmupSeconds = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        durationSeconds = Integer.parseInt(options.getOrDefault("duration", "30"));
+        seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        binary = options.containsKey("binary");
+        threads = Integer.parseInt(options.getOrDefault("threads", "2"));
+        tlsKeyStore = options.get("tls");
+        tlsPassword = options.getOrDefault("tls-password", "");
+
+        histogram = new LatencyHistogram();
+        completed = new LongAdder();
+        mismatched = new LongAdder();
+        unsent = new LongAdder();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadGenerator(Options.parse(args, 0)).run();
+    }
+
+    public void run() throws IOException, InterruptedException, GeneralSecurityException {
+        System.out.println("Load: host=" + host + ":" + port + " connections=" + connectionCount
+                + " rate=" + (rate == 0 ? "closed-loop" : rate + "/s") + " depth=" + depth
+                + " payload=" + payloadSpec + " unicode=" + unicodeFraction + " seed=" + seed
+                + " framing=" + (binary ? "binary" : "text") + (tlsKeyStore != null ? " tls" : ""));
+        generatePayloads();
+        if (tlsKeyStore != null) {
+            tls = Tls.context(Paths.get(tlsKeyStore), tlsPassword.toCharArray());
+        }
+
+        EventLoopGroup eventLoops = new EventLoopGroup(threads);
+        TimingWheel heartbeats = new TimingWheel("load-heartbeats", 100, 64);
+        connections = new Connection[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            connections[i] = new Connection(i, eventLoops.next());
+            heartbeats.schedulePeriodic(connections[i]::heartbeat, HEARTBEAT_INTERVAL_MILLIS);
+        }
+
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+
+        if (rate == 0) {
+            // Closed loop, every response triggers the next request on the same connection
+            for (Connection connection : connections) {
+                for (int i = 0; i < depth; i++) {
+                    connection.send(System.nanoTime());
+                }
+            }
+            sleepUntil(measureStart);
+            resetCounters();
+            sleepUntil(end);
+        } else {
+            pace(start, measureStart, end);
+        }
+        running = false;
+
+        double seconds = (System.nanoTime() - measureStart) / 1e9;
+        System.out.printf("Throughput: %.1f requests/s over %.1f s%n", completed.sum() / seconds, seconds);
+        System.out.println("Latency: " + histogram.summary());
+        System.out.println("Errors: mismatched=" + mismatched.sum() + " unsent=" + unsent.sum());
+
+        heartbeats.stop();
+        for (Connection connection : connections) {
+            connection.socket.stop();
+        }
+        Thread.sleep(500);
+        eventLoops.stop();
+    }
+
+    /**
+     * Sends requests at the configured rate, round-robin over connections
+     * that have room in their pipeline.
+     */
+    private void pace(long start, long measureStart, long end) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long due = start;
+        int next = 0;
+        boolean measuring = false;
+
+        while (due < end) {
+            due += intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            if (!measuring && due >= measureStart) {
+                resetCounters();
+                measuring = true;
+            }
+
+            boolean sent = false;
+            for (int i = 0; i < connections.length && !sent; i++) {
+                Connection connection = connections[next];
+                next = (next + 1) % connections.length;
+
+                if (connection.outstanding.get() < depth) {
+                    connection.send(due);
+                    sent = true;
+                }
+            }
+            if (!sent) {
+                // Every pipeline is full, the server is not keeping up with the rate
+                unsent.increment();
+            }
+        }
+    }
+
+    private void resetCounters() {
+        histogram.reset();
+        completed.reset();
+        mismatched.reset();
+        unsent.reset();
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void generatePayloads() {
+        Random random = new Random(seed);
+        payloads = new String[PAYLOAD_POOL_SIZE];
+        expected = new String[PAYLOAD_POOL_SIZE];
+
+        for (int i = 0; i < PAYLOAD_POOL_SIZE; i++) {
+            int size = payloadSize(random);
+            boolean unicode = random.nextDouble() < unicodeFraction;
+
+            StringBuilder payload = new StringBuilder(size);
+            for (int j = 0; j < size; j++) {
+                if (unicode && random.nextInt(4) == 0) {
+                    // Greek and Cyrillic letters that the ASCII fast path can't handle
+                    payload.append((char) (random.nextBoolean() ? 0x03B1 + random.nextInt(24) : 0x0430 + random.nextInt(32)));
+                } else {
+                    payload.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            payloads[i] = payload.toString();
+            expected[i] = payloads[i].toUpperCase();
+        }
+    }
+
+    private int payloadSize(Random random) {
+        if (payloadSpec.startsWith("exp:")) {
+            double mean = Double.parseDouble(payloadSpec.substring(4));
+            return Math.max(1, (int) Math.round(-mean * Math.log(1 - random.nextDouble())));
+        }
+        if (payloadSpec.contains("-")) {
+            String[] bounds = payloadSpec.split("-");
+            int min = Integer.parseInt(bounds[0]);
+            int max = Integer.parseInt(bounds[1]);
+            return min + random.nextInt(max - min + 1);
+        }
+        return Integer.parseInt(payloadSpec);
+    }
+
+    private class Connection {
+        private int id;
+        private SelectorSocket socket;
+        private AtomicInteger outstanding;
+
+        // Responses come back in order, so each in-flight request has its own slot.
+        // Sequences are longs so long runs never wrap them into negative slots
+        private long[] dueNanos;
+        private AtomicLong nextSequence;
+
+        Connection(int id, EventLoop loop) throws IOException {
+            this.id = id;
+            outstanding = new AtomicInteger();
+            nextSequence = new AtomicLong();
+            dueNanos = new long[depth];
+
+            socket = new SelectorSocket(SocketChannel.open(new InetSocketAddress(host, port)), loop,
+                    tls != null ? Tls.clientEngine(tls, host, port) : null);
+            socket.addOnMessageHandler(this::handleMessage);
+            socket.run();
+            if (binary) {
+                socket.requestBinary();
+            }
+        }
+
+        void send(long due) {
+            long sequence = nextSequence.getAndIncrement();
+            dueNanos[(int) (sequence % depth)] = due;
+            outstanding.incrementAndGet();
+
+            String payload = payloads[(int) ((id + sequence) % payloads.length)];
+            socket.sendMessage(new Message("CAPITALIZE_SEQ", Arrays.asList("" + sequence, payload)));
+        }
+
+        void heartbeat() {
+            socket.sendMessage(new Message("HEARTBEAT", null));
+        }
+
+        private String handleMessage(Message message) {
+            if (!message.getCommand().equals("RESULT")) {
+                return "";
+            }
+
+            long sequence = Long.parseLong(message.getArgs().get(0));
+            histogram.record(System.nanoTime() - dueNanos[(int) (sequence % depth)]);
+            completed.increment();
+            if (!message.getArgs().get(1).equals(expected[(int) ((id + sequence) % expected.length)])) {
+                mismatched.increment();
+            }
+            outstanding.decrementAndGet();
+
+            if (rate == 0 && running) {
+                send(System.nanoTime());
+            }
+            return "";
+        }
+    }
+}
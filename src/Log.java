@@ -0,0 +1,64 @@
+import java.util.Locale;
+
+/**
+ * Log output gated by level. Every line goes through one synchronized
+ * stdout, so with thousands of clients the per-connection and
+ * per-heartbeat lines are DEBUG and off by default. Build messages for
+ * DEBUG lines inside an {@link #isDebugEnabled()} check on hot paths.
+ */
+public final class Log {
+    public enum Level {
+        ERROR,
+        WARN,
+        INFO,
+        DEBUG
+    }
+
+    private static volatile Level level = Level.INFO;
+
+    private Log() {
+    }
+
+    public static void setLevel(Level level) {
+        Log.level = level;
+    }
+
+    /** Sets the level from its name ignoring case, as given on the command line. */
+    public static void setLevel(String name) {
+        setLevel(Level.valueOf(name.toUpperCase(Locale.ROOT)));
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    private static void log(Level messageLevel, String message) {
+        if (isEnabled(messageLevel)) {
+            System.out.println(message);
+        }
+    }
+}
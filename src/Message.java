@@ -4,12 +4,19 @@ import java.util.stream.Collectors;
 public class Message {
     private String command;
     private List<String> args;
+    private Command type;
 
     public Message(String command, List<String> args) {
         this.command = command;
         this.args = args;
     }
 
+    public Message(Command type, List<String> args) {
+        this.command = type.name();
+        this.args = args;
+        this.type = type;
+    }
+
     public String getCommand() {
         return this.command;
     }
@@ -18,15 +25,22 @@ public class Message {
         return this.args;
     }
 
-    public String serialize() {
-        switch (command) {
-            case "BROADCAST_HEARTBEAT":
-            case "HEARTBEAT":
-            case "KILL":
-                return command;
-            default:
-                return command + "\n" + args.stream().collect(Collectors.joining("\n"));
+    /**
+     * Returns the protocol command this message carries, or null if its
+     * command isn't part of the protocol.
+     */
+    public Command getType() {
+        if (type == null) {
+            type = Command.of(command);
         }
+        return type;
+    }
 
+    public String serialize() {
+        Command type = getType();
+        if (type != null && type.getArgCount() == 0) {
+            return command;
+        }
+        return command + "\n" + args.stream().collect(Collectors.joining("\n"));
     }
 }
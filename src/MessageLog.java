@@ -0,0 +1,61 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * The server console's log, kept in a ring buffer of the most recent
+ * entries so a long running server holds the same memory however much it
+ * logs. Every entry gets the next sequence number, and readers such as
+ * the view remember the last one they saw and ask only for newer ones.
+ *
+ * Entries are also handed to the sinks, which see every entry even after
+ * it has left the ring.
+ */
+public class MessageLog {
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private String[] entries;
+    // The sequence number the next entry gets
+    private long nextSequence;
+    private List<Consumer<String>> sinks;
+
+    public MessageLog(int capacity) {
+        entries = new String[capacity];
+        sinks = new CopyOnWriteArrayList<>();
+    }
+
+    public int getCapacity() {
+        return entries.length;
+    }
+
+    /** Adds a sink, which is called on the appending thread so it should only queue the entry. */
+    public void addSink(Consumer<String> sink) {
+        sinks.add(sink);
+    }
+
+    public void append(String text) {
+        synchronized (this) {
+            entries[(int) (nextSequence % entries.length)] = text;
+            nextSequence++;
+        }
+        for (Consumer<String> sink : sinks) {
+            sink.accept(text);
+        }
+    }
+
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Adds the entries from the given sequence number on to out, or from
+     * the oldest entry still in the ring if that one has been overwritten.
+     * Returns the sequence number to pass in next time.
+     */
+    public synchronized long copySince(long sequence, List<String> out) {
+        for (long s = Math.max(sequence, nextSequence - entries.length); s < nextSequence; s++) {
+            out.add(entries[(int) (s % entries.length)]);
+        }
+        return nextSequence;
+    }
+}
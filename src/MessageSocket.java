@@ -0,0 +1,89 @@
+import java.util.function.Function;
+
+/**
+ * A connection that delivers parsed protocol messages to its handlers
+ * and queues outbound messages for the peer.
+ *
+ * Running a socket services the connection. Thread based sockets loop
+ * until they are stopped, while selector based sockets only register
+ * with their event loop and return immediately.
+ */
+public interface MessageSocket extends Runnable {
+    void addOnMessageHandler(Function<Message, String> handler);
+
+    /**
+     * Queues a message for the peer. Returns false if the socket refused
+     * it because too much output is already waiting.
+     */
+    boolean sendMessage(Message message);
+
+    /**
+     * Queues a frame that may be shared with other sockets. Returns false
+     * if the socket refused it because too much output is already waiting.
+     */
+    boolean sendFrame(EncodedFrame frame);
+
+    /**
+     * Queues a frame like sendFrame, but never writes on the calling thread,
+     * for senders such as a fan-out that must not wait on one slow peer.
+     */
+    default boolean queueFrame(EncodedFrame frame) {
+        return sendFrame(frame);
+    }
+
+    void stop();
+
+    /**
+     * Stops the socket gracefully: it reads nothing more from the peer,
+     * answers the frames it has already read, then queues last and closes
+     * once everything queued is written. Returns right away, the close
+     * handler runs once the connection is closed.
+     */
+    void shutdown(Message last);
+
+    /** Closes the connection right away, throwing away whatever is still queued. */
+    void shutdownNow();
+
+    /**
+     * Sets what to run once the connection is closed, whether it was
+     * stopped or the peer went away.
+     */
+    void setOnClose(Exec onClose);
+
+    /** Sets the counters for the messages and bytes passing through this socket. */
+    void setStats(ConnectionStats stats);
+
+    /**
+     * Limits how many frames per second are read from the peer. Once the
+     * bucket is empty the socket stops reading until the next token, before
+     * any parsing, so a flooding client is held back by TCP flow control.
+     */
+    void setRateLimit(TokenBucket rateLimit);
+
+    /**
+     * Sets how much output may wait for the peer before it counts as a slow
+     * consumer, and what to do about it, see {@link OutboundQueue}. Under
+     * the disconnect policy onDisconnect runs once the peer falls behind,
+     * and stopping the socket afterwards closes it without waiting for the
+     * peer to read what is left.
+     */
+    void setBackpressure(Backpressure backpressure, Exec onDisconnect);
+
+    /** Returns the number of frames waiting to be written to the peer. */
+    int getQueuedFrames();
+
+    /**
+     * Returns the System.nanoTime() at which data last arrived from the
+     * peer, or at which the socket was created if nothing has arrived yet.
+     */
+    long getLastReceivedNanos();
+
+    /**
+     * Answers command frames with response frames built by transform
+     * directly from the raw argument bytes, skipping the message handlers.
+     * Frames the transform declines go to the handlers as usual. Sockets
+     * that don't work on raw buffers ignore this.
+     */
+    default void addFastPath(String command, String response, ByteTransform transform) {
+    }
+}
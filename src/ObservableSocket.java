@@ -1,37 +1,127 @@
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Function;
 
-public class ObservableSocket implements Runnable {
+public class ObservableSocket implements MessageSocket {
+    // Parked blocking sockets keep their buffers for the life of the connection, so keep them small
+    private static final int BLOCKING_READ_BUFFER_SIZE = 256;
+    private static final int BLOCKING_WRITE_BUFFER_SIZE = 1024;
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    // Senders are refused once this much output is waiting for the peer, room for the largest answer and then some
+    private static final long MAX_PENDING_BYTES = FrameCodec.MAX_FRAME_SIZE + 1024 * 1024;
+    // How long stopping waits for a sender that is still writing before closing under it
+    private static final long REMAINING_WRITE_WAIT_MILLIS = 5000;
+    // How long a polling socket waits for input before draining its send queue again
+    private static final int POLL_WAIT_MILLIS = 1;
+
+    // Writes frames queued from threads that must not block, unless the owner picks another executor
+    private static final ExecutorService defaultWriter = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "socket-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private Socket socket;
+    private boolean blocking;
     private BufferedReader in;
-    private PrintWriter out;
+    // Under the reader, so a polling socket can wait for a byte and put it back
+    private PushbackInputStream peekable;
+    private OutputStream out;
     private volatile boolean shouldRun = true;
+    // Set by shutdown, the reader sends it once it has answered what it already read
+    private volatile Message last;
+    private volatile long lastReceivedNanos = System.nanoTime();
     private List<Function<Message, String>> onMessageHandlers;
-    private List<Message> sendQueue;
-    private ReentrantLock sendLock;
+    private volatile Exec onClose;
+    private ConnectionStats stats;
+    private TokenBucket rateLimit;
+
+    // Frames are encoded and written in batches by whichever thread holds the drain lock
+    private OutboundQueue sendQueue;
+    private Lock draining;
+    private byte[] writeBuffer;
+    private Executor writer = defaultWriter;
+    private AtomicBoolean drainScheduled;
 
     public ObservableSocket(Socket socket) throws IOException {
+        this(socket, false);
+    }
+
+    /**
+     * A blocking socket parks its thread in readLine until a message
+     * arrives and writes outbound messages from the sending thread. This
+     * is meant for virtual threads, where a parked thread is cheap. A
+     * polling socket checks for input and drains its send queue in a loop.
+     */
+    public ObservableSocket(Socket socket, boolean blocking) throws IOException {
         this.socket = socket;
-        sendLock = new ReentrantLock();
+        this.blocking = blocking;
 
-        in = new BufferedReader(
-                new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
+        peekable = new PushbackInputStream(new CountingInputStream(socket.getInputStream()));
+        in = new BufferedReader(new InputStreamReader(peekable, StandardCharsets.UTF_8),
+                blocking ? BLOCKING_READ_BUFFER_SIZE : WRITE_BUFFER_SIZE);
+        out = socket.getOutputStream();
         onMessageHandlers = new ArrayList<>();
-        sendQueue = new ArrayList<>();
+        sendQueue = new OutboundQueue(MAX_PENDING_BYTES);
+        draining = new ReentrantLock();
+        drainScheduled = new AtomicBoolean();
+        writeBuffer = new byte[blocking ? BLOCKING_WRITE_BUFFER_SIZE : WRITE_BUFFER_SIZE];
     }
 
     public void addOnMessageHandler(Function<Message, String> handler) {
         onMessageHandlers.add(handler);
     }
 
+    public void setOnClose(Exec onClose) {
+        this.onClose = onClose;
+    }
+
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+        sendQueue.setStats(stats);
+    }
+
+    public void setBackpressure(Backpressure backpressure, Exec onDisconnect) {
+        sendQueue.setBackpressure(backpressure, onDisconnect);
+    }
+
+    public void setRateLimit(TokenBucket rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Sets where a blocking socket writes the frames passed to queueFrame.
+     * Frames passed to sendFrame are still written by the sending thread.
+     */
+    public void setWriter(Executor writer) {
+        this.writer = writer;
+    }
+
+    public int getQueuedFrames() {
+        return sendQueue.size();
+    }
+
     private void notifyHandlers(Message message) {
         onMessageHandlers.forEach(handler -> handler.apply(message));
     }
@@ -39,61 +129,330 @@ public class ObservableSocket implements Runnable {
     public void stop() {
         shouldRun = false;
 
-        // Send all remaining messages
-        sendLock.lock();
-        for (Message message : sendQueue) {
-            out.println(message.serialize());
+        if (sendQueue.isAbandoned()) {
+            // The peer stopped reading, a drainer may be stuck writing to it until the socket closes
+            closeSocket();
+            return;
+        }
+
+        // Closing the socket releases a reader parked in readLine, so send everything first.
+        // A polling socket's own loop does both once it sees the flag.
+        if (blocking) {
+            writeRemaining();
+            closeSocket();
+        }
+    }
+
+    public void shutdown(Message last) {
+        this.last = last;
+        try {
+            // Readers see the end of the stream once they have read what already arrived
+            socket.shutdownInput();
+        } catch (IOException e) {
+            shutdownNow();
+        }
+    }
+
+    public void shutdownNow() {
+        shouldRun = false;
+        closeSocket();
+    }
+
+    /**
+     * Sends all remaining messages, waiting for any sender that is draining
+     * right now. A sender stuck writing to a peer that doesn't read is only
+     * waited for so long, closing the socket afterwards fails its write.
+     */
+    private void writeRemaining() {
+        try {
+            if (!draining.tryLock(REMAINING_WRITE_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.warn("Gave up sending remaining messages, the peer is not reading");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            writeQueued();
+        } catch (IOException e) {
+            Log.warn("Failed to send remaining messages: " + e.getMessage());
+        } finally {
+            draining.unlock();
+        }
+    }
+
+    private void closeSocket() {
+        sendQueue.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close socket: " + e.getMessage());
+        }
+    }
+
+    public long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    public boolean sendMessage(Message message) {
+        return sendFrame(EncodedFrame.of(message));
+    }
+
+    public boolean sendFrame(EncodedFrame frame) {
+        if (!offer(frame)) {
+            return false;
+        }
+
+        // Blocking sockets have no loop to drain the queue, so senders take turns doing it
+        if (blocking && !sendQueue.isAbandoned()) {
+            drain();
+        }
+        return true;
+    }
+
+    public boolean queueFrame(EncodedFrame frame) {
+        if (!blocking) {
+            // The polling loop writes whatever is queued
+            return sendFrame(frame);
+        }
+        if (!offer(frame)) {
+            return false;
+        }
+        if (!sendQueue.isAbandoned() && drainScheduled.compareAndSet(false, true)) {
+            try {
+                writer.execute(() -> {
+                    // Frames queued from here on schedule another drain, so none is left behind
+                    drainScheduled.set(false);
+                    drain();
+                });
+            } catch (RejectedExecutionException e) {
+                // The writer is shutting down with the server, write it ourselves
+                drainScheduled.set(false);
+                drain();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued frames if no other thread is already doing so. A frame
+     * queued while the current drainer is finishing up is picked up by
+     * checking the queue again after releasing the lock.
+     */
+    private void drain() {
+        while (!sendQueue.isEmpty() && draining.tryLock()) {
+            try {
+                writeQueued();
+            } catch (IOException e) {
+                if (shouldRun) {
+                    Log.warn("Failed to send message: " + e.getMessage());
+                }
+                return;
+            } finally {
+                draining.unlock();
+            }
+        }
+    }
+
+    private boolean offer(EncodedFrame frame) {
+        if (!sendQueue.offer(frame)) {
+            // Counted in the stats, a slow client would flood the log with these
+            Log.debug("Dropped " + frame.getMessage().getCommand() + " message, too much output is pending");
+            return false;
+        }
+        if (stats != null) {
+            stats.sent(frame.getMessage().getType());
         }
-        sendQueue.clear();
-        sendLock.unlock();
+        return true;
     }
 
-    public void sendMessage(Message message) {
-        sendLock.lock();
-        sendQueue.add(message);
-        sendLock.unlock();
+    /**
+     * Copies as many queued frames as fit into the write buffer before each
+     * write, and flushes once at the end. Only call this holding the drain lock.
+     */
+    private void writeQueued() throws IOException {
+        int length = 0;
+        long written = 0;
+        EncodedFrame frame;
+        while ((frame = sendQueue.poll()) != null) {
+            try {
+                // Shared frames hand every socket the same array, which is only ever read
+                byte[] bytes = frame.getBytes(TextFrameCodec.INSTANCE);
+                written += bytes.length;
+                if (length + bytes.length > writeBuffer.length) {
+                    if (length > 0) {
+                        out.write(writeBuffer, 0, length);
+                        length = 0;
+                    }
+                    if (bytes.length > writeBuffer.length) {
+                        // Too big to coalesce, write it on its own
+                        out.write(bytes);
+                        continue;
+                    }
+                }
+                System.arraycopy(bytes, 0, writeBuffer, length, bytes.length);
+                length += bytes.length;
+            } finally {
+                // Written, copied into the batch or lost with a failed write, the frame is done with either way
+                frame.settled();
+            }
+        }
+
+        if (length > 0) {
+            out.write(writeBuffer, 0, length);
+        }
+        out.flush();
+
+        if (stats != null && written > 0) {
+            stats.wrote(written);
+        }
     }
 
     @Override
     public void run() {
-        System.out.println("Started running");
+        Log.debug("Started running");
         while(shouldRun) {
             // If there are messages to receive, get them and notify listeners
             try {
-                if (in.ready()) {
-                    String command = in.readLine().toUpperCase();
-
-                    if (!Protocol.isCommand(command)) {
-                        // Invalid message, throw it away and log
-                        System.out.println("Invalid command sent: " + command);
-                    } else {
-						// Read in the specified number of lines for this command
-						List<String> args = new ArrayList<>();
-						for (int i = 0; i < Protocol.commands.get(command); i++) {
-							// Add each line to an array of 'arguments' for the command
-							args.add(in.readLine());
-						}
-
-						// Notify all subscribed handlers of the new message
-						notifyHandlers(new Message(command, args));
-					}
+                if ((blocking || in.ready() || awaitInput()) && admit()) {
+                    readMessage();
+                } else if (last != null) {
+                    // Shutting down, and everything that arrived has been answered
+                    shouldRun = false;
                 }
             } catch (IOException e) {
-                System.out.println("Socket closed unexpectedly!");
+                if (shouldRun) {
+                    Log.debug("Socket closed unexpectedly!");
+                }
                 shouldRun = false;
                 continue;
             }
 
             // If there are messages to send, send them
-            if (sendQueue.size() > 0) {
-                sendLock.lock();
-                for (Message message : sendQueue) {
-                    out.println(message.serialize());
-                }
-                sendQueue.clear();
-                sendLock.unlock();
+            if (!blocking) {
+                drain();
+            }
+        }
+        Log.debug("Stopped running");
+
+        // The reader owns the connection once it stops, so it sends what is left and closes it
+        if (last != null) {
+            sendMessage(last);
+        }
+        if (!sendQueue.isEmpty() && !sendQueue.isAbandoned() && !socket.isClosed()) {
+            writeRemaining();
+        }
+        closeSocket();
+
+        if (onClose != null) {
+            onClose.exec();
+        }
+    }
+
+    /**
+     * Waits up to POLL_WAIT_MILLIS for input on a polling socket. ready()
+     * can't tell a quiet peer from one that hung up, so this reads a byte,
+     * throwing EOFException at the end of the stream, and puts it back.
+     */
+    private boolean awaitInput() throws IOException {
+        // Only for the peek, readLine must wait for the rest of a line however long it takes
+        socket.setSoTimeout(POLL_WAIT_MILLIS);
+        try {
+            int b = peekable.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            peekable.unread(b);
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    /**
+     * Takes a rate limit token for the next message, or waits until the
+     * next token is due and returns false so the loop comes round again.
+     */
+    private boolean admit() {
+        if (rateLimit == null || rateLimit.tryAcquire()) {
+            return true;
+        }
+        if (stats != null) {
+            stats.throttled();
+        }
+        LockSupport.parkNanos(rateLimit.nanosUntilToken());
+        return false;
+    }
+
+    // Package-private so the benchmarks can call it without a live connection
+    void readMessage() throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new EOFException();
+        }
+        lastReceivedNanos = System.nanoTime();
+        Command command = Command.of(line);
+
+        if (command == null) {
+            // Invalid message, throw it away. At debug level, a client flooding garbage would flood the log too
+            if (Log.isDebugEnabled()) {
+                Log.debug("Invalid command sent: " + line);
+            }
+            return;
+        }
+
+        if (command == Command.BINARY) {
+            // Streams only speak the line protocol, tell the peer to keep using it
+            sendMessage(new Message(Command.TEXT, null));
+            return;
+        }
+
+        // Read in the specified number of lines for this command
+        List<String> args = new ArrayList<>();
+        int argCount = command.getArgCount();
+        for (int i = 0; i < argCount; i++) {
+            // Add each line to an array of 'arguments' for the command
+            args.add(in.readLine());
+
+            // Counted commands announce how many more lines follow in their last fixed argument
+            if (i == command.getArgCount() - 1 && command.isCounted()) {
+                argCount += Protocol.countedArgs(args.get(i));
+            }
+        }
+
+        if (stats != null) {
+            stats.received(command);
+        }
+
+        // Notify all subscribed handlers of the new message
+        notifyHandlers(new Message(command, args));
+    }
+
+    /** Counts the bytes the reader takes from the socket, whole buffers at a time. */
+    private class CountingInputStream extends FilterInputStream {
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && stats != null) {
+                stats.read(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0 && stats != null) {
+                stats.read(read);
             }
+            return read;
         }
-        System.out.println("Stopped running");
     }
 }
@@ -0,0 +1,244 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frames waiting to be written to a connection. Any number of threads
+ * may offer frames without taking a lock, while a single writer at a
+ * time polls them. The queue keeps track of how many bytes are waiting,
+ * counting each frame at its text encoded length, and refuses frames
+ * beyond its cap, so a connection that isn't being drained can't grow
+ * without bound.
+ *
+ * With {@link Backpressure} set, a peer that lets more than the high
+ * watermark pile up is a slow consumer and the queue applies the policy
+ * well before the cap. Dropping the oldest frames takes them from the
+ * head while the writer is polling, so writers must poll a frame before
+ * writing it, never peek at it and poll it afterwards.
+ */
+public class OutboundQueue {
+    private Queue<EncodedFrame> frames;
+    private AtomicLong pendingBytes;
+    // Counted separately, the queue itself can only count its frames by walking them
+    private AtomicInteger size;
+    private long maxPendingBytes;
+
+    private volatile Backpressure backpressure;
+    private volatile Exec onDisconnect;
+    private volatile ConnectionStats stats;
+    // Set when the waiting bytes pass the high watermark, cleared once the writer gets them below the low one
+    private AtomicBoolean behind;
+    private volatile boolean abandoned;
+    private volatile boolean closed;
+
+    public OutboundQueue(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+        frames = new ConcurrentLinkedQueue<>();
+        pendingBytes = new AtomicLong();
+        size = new AtomicInteger();
+        behind = new AtomicBoolean();
+    }
+
+    /**
+     * Sets the watermarks and what to do when the peer falls behind. For
+     * {@link Backpressure.Policy#DISCONNECT} the queue throws away what is
+     * waiting and runs onDisconnect, on the thread offering the first frame
+     * after the waiting bytes passed the high watermark.
+     */
+    public void setBackpressure(Backpressure backpressure, Exec onDisconnect) {
+        this.onDisconnect = onDisconnect;
+        this.backpressure = backpressure;
+    }
+
+    /** Sets where slow consumer events and dropped frames are counted. */
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Queues a frame. Returns false, without queueing it, if that would
+     * put more than the cap in flight, the slow consumer policy threw it
+     * away or the connection is closed. A frame offered to an empty queue
+     * is never over the cap.
+     */
+    public boolean offer(EncodedFrame frame) {
+        if (closed) {
+            return false;
+        }
+        int bytes = frame.encodedLength(TextFrameCodec.INSTANCE);
+
+        Backpressure backpressure = this.backpressure;
+        if (backpressure != null) {
+            // Only what is already waiting counts, a single big answer to a peer that keeps up is fine
+            if (pendingBytes.get() > backpressure.getHighWatermark()) {
+                if (!fallBehind(backpressure, frame, bytes)) {
+                    return false;
+                }
+            } else if (behind.get() && backpressure.getPolicy() == Backpressure.Policy.COALESCE_HEARTBEATS
+                    && isHeartbeat(frame)) {
+                // The next heartbeat after the peer catches up says the same
+                dropped(1);
+                return false;
+            }
+        }
+
+        // An empty queue takes any frame, or an answer bigger than the cap could never be sent
+        long pending = pendingBytes.addAndGet(bytes);
+        if (pending > maxPendingBytes && pending != bytes) {
+            pendingBytes.addAndGet(-bytes);
+            dropped(1);
+            return false;
+        }
+        frames.add(frame);
+        size.incrementAndGet();
+
+        // The connection may have closed while we were adding, make sure the frame doesn't linger
+        if (closed) {
+            clear();
+        }
+        return true;
+    }
+
+    public EncodedFrame poll() {
+        EncodedFrame frame = remove();
+
+        Backpressure backpressure = this.backpressure;
+        if (frame != null && backpressure != null && behind.get()
+                && pendingBytes.get() <= backpressure.getLowWatermark()) {
+            behind.set(false);
+        }
+        return frame;
+    }
+
+    /**
+     * Throws away everything queued and refuses frames from now on, for
+     * connections that have closed.
+     */
+    public void close() {
+        closed = true;
+        clear();
+    }
+
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /** Whether the peer is past the high watermark and hasn't caught up since. */
+    public boolean isBehind() {
+        return behind.get();
+    }
+
+    /**
+     * Whether the queue gave up on the peer under the disconnect policy.
+     * What is queued since is best effort, the socket closes without
+     * waiting for the peer to read it.
+     */
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Applies the slow consumer policy to a frame offered while the queue
+     * is past the high watermark. Returns whether to queue the frame.
+     */
+    private boolean fallBehind(Backpressure backpressure, EncodedFrame frame, int bytes) {
+        // Count each slow spell once, however many frames arrive during it
+        boolean fellBehind = behind.compareAndSet(false, true);
+        if (fellBehind && stats != null) {
+            stats.slowConsumer();
+        }
+
+        switch (backpressure.getPolicy()) {
+            case DROP_OLDEST:
+                // Make room down to the low watermark, rather than one frame for every frame queued
+                int dropped = 0;
+                while (pendingBytes.get() + bytes > backpressure.getLowWatermark() && discard()) {
+                    dropped++;
+                }
+                dropped(dropped);
+                return true;
+            case COALESCE_HEARTBEATS:
+                if (fellBehind) {
+                    dropped(removeHeartbeats());
+                }
+                if (isHeartbeat(frame)) {
+                    dropped(1);
+                    return false;
+                }
+                return true;
+            default:
+                if (fellBehind) {
+                    abandoned = true;
+                    dropped(clear() + 1);
+                    if (onDisconnect != null) {
+                        onDisconnect.exec();
+                    }
+                } else {
+                    dropped(1);
+                }
+                return false;
+        }
+    }
+
+    private int removeHeartbeats() {
+        int removed = 0;
+        for (EncodedFrame frame : frames) {
+            // The writer may have taken the frame in the meantime, only count it if we got it
+            if (isHeartbeat(frame) && frames.remove(frame)) {
+                pendingBytes.addAndGet(-frame.encodedLength(TextFrameCodec.INSTANCE));
+                size.decrementAndGet();
+                frame.settled();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /** Throws away the frame at the head. Returns false if the queue was empty. */
+    private boolean discard() {
+        EncodedFrame frame = remove();
+        if (frame == null) {
+            return false;
+        }
+        frame.settled();
+        return true;
+    }
+
+    private int clear() {
+        int cleared = 0;
+        while (discard()) {
+            cleared++;
+        }
+        return cleared;
+    }
+
+    private EncodedFrame remove() {
+        EncodedFrame frame = frames.poll();
+        if (frame != null) {
+            pendingBytes.addAndGet(-frame.encodedLength(TextFrameCodec.INSTANCE));
+            size.decrementAndGet();
+        }
+        return frame;
+    }
+
+    private static boolean isHeartbeat(EncodedFrame frame) {
+        Command type = frame.getMessage().getType();
+        return type != null && type.isHeartbeat();
+    }
+
+    private void dropped(int count) {
+        if (count > 0 && stats != null) {
+            stats.dropped(count);
+        }
+    }
+}
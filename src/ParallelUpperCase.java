@@ -0,0 +1,103 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Upper-cases large payloads on several cores. Text at or above the
+ * threshold is cut into pieces at {@link TextBoundaries safe boundaries},
+ * the pieces are upper-cased in parallel on a shared ForkJoinPool, and
+ * the results are appended once into a builder of the exact final size.
+ * Smaller text is upper-cased on the calling thread.
+ *
+ * Pieces are kept small even on a single core: String.toUpperCase copies
+ * its whole result each time a char grows, as ß does into SS, so on such
+ * text its cost grows with the square of the length.
+ */
+public class ParallelUpperCase {
+    // Off until it is measured on several cores, on one core splitting only costs. Turn it on with --parallel-threshold
+    public static final int DEFAULT_THRESHOLD = 0;
+    // Smaller pieces cost more to schedule than they save
+    private static final int PIECE_CHARS = 16 * 1024;
+
+    public static final ParallelUpperCase DEFAULT = new ParallelUpperCase(DEFAULT_THRESHOLD);
+
+    private int threshold;
+    private ForkJoinPool pool;
+
+    /** A threshold of 0 upper-cases everything on the calling thread. */
+    public ParallelUpperCase(int threshold) {
+        this(threshold, ForkJoinPool.commonPool());
+    }
+
+    public ParallelUpperCase(int threshold, ForkJoinPool pool) {
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public boolean isParallel(String text) {
+        return threshold > 0 && text.length() >= threshold;
+    }
+
+    public String apply(String text) {
+        if (!isParallel(text)) {
+            return text.toUpperCase();
+        }
+
+        int pieces = Math.max(2, text.length() / PIECE_CHARS);
+        int[] bounds = new int[pieces + 1];
+        int count = 0;
+        for (int i = 1; i < pieces; i++) {
+            int split = TextBoundaries.lastSafeSplit(text, (int) ((long) text.length() * i / pieces));
+            // Long runs of combining marks can move a cut back onto the previous one
+            if (split > bounds[count]) {
+                bounds[++count] = split;
+            }
+        }
+        bounds[++count] = text.length();
+
+        String[] results = new String[count];
+        pool.invoke(new Pieces(text, bounds, results, 0, count));
+
+        int length = 0;
+        for (String result : results) {
+            length += result.length();
+        }
+        StringBuilder upper = new StringBuilder(length);
+        for (String result : results) {
+            upper.append(result);
+        }
+        return upper.toString();
+    }
+
+    /** Upper-cases the pieces from first up to last, halving the range until one piece is left. */
+    @SuppressWarnings("serial")
+    private static class Pieces extends RecursiveAction {
+        private String text;
+        private int[] bounds;
+        private String[] results;
+        private int first;
+        private int last;
+
+        Pieces(String text, int[] bounds, String[] results, int first, int last) {
+            this.text = text;
+            this.bounds = bounds;
+            this.results = results;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                results[first] = text.substring(bounds[first], bounds[last]).toUpperCase();
+                return;
+            }
+            int middle = (first + last) >>> 1;
+            invokeAll(new Pieces(text, bounds, results, first, middle),
+                    new Pieces(text, bounds, results, middle, last));
+        }
+    }
+}
@@ -1,19 +1,26 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.net.ProtocolException;
 
 public class Protocol {
-    public static final Map<String, Integer> commands;
-    static {
-        commands = new HashMap<>();
-        commands.put("SEND", 1);
-        commands.put("CAPITALIZE", 1);
-        commands.put("HEARTBEAT", 0);
-        commands.put("BROADCAST_HEARTBEAT", 0);
-        commands.put("CLIENT_HEARTBEAT", 1);
-        commands.put("KILL", 0);
-    }
+    public static final int MAX_BATCH_SIZE = 10000;
 
     static boolean isCommand(String command) {
-        return commands.keySet().stream().filter(v -> v.equals(command.toUpperCase())).count() == 1;
+        return Command.of(command) != null;
+    }
+
+    /**
+     * Returns how many argument lines follow the fixed arguments of a
+     * counted command, given the value of its last fixed argument.
+     */
+    static int countedArgs(String count) throws ProtocolException {
+        int extra;
+        try {
+            extra = Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Invalid argument count " + count);
+        }
+        if (extra < 0 || extra > MAX_BATCH_SIZE) {
+            throw new ProtocolException("Argument count " + extra + " is outside 0 to " + MAX_BATCH_SIZE);
+        }
+        return extra;
     }
 }
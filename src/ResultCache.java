@@ -0,0 +1,200 @@
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A server-wide cache of CAPITALIZE responses keyed by payload, holding
+ * shared pre-encoded frames so a repeated payload costs neither the
+ * upper-casing nor the encode.
+ *
+ * Memory is bounded by a byte budget split over independently locked
+ * stripes. Each stripe is a segmented LRU: new payloads enter a small
+ * probation segment and only move to the protected segment when they
+ * are hit again, so a burst of one-off payloads can't flush the working
+ * set. Payloads larger than a fraction of a stripe are never cached.
+ */
+public class ResultCache {
+    private static final int STRIPES = 16;
+
+    // Share of each stripe reserved for entries that have been hit at least twice
+    private static final double PROTECTED_SHARE = 0.8;
+
+    // Rough size of the map entry, strings and frame objects around the character data
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
+    private Stripe[] stripes;
+    private long maxEntryBytes;
+    private LongAdder hits;
+    private LongAdder misses;
+    private LongAdder evictions;
+    private LongAdder rejected;
+
+    public ResultCache(long budgetBytes) {
+        long stripeBytes = budgetBytes / STRIPES;
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeBytes);
+        }
+        maxEntryBytes = stripeBytes / 8;
+
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+        rejected = new LongAdder();
+    }
+
+    /**
+     * Returns the SEND frame answering a CAPITALIZE of the payload,
+     * computing and caching it on a miss. The frame is shared and must not
+     * be modified.
+     */
+    public EncodedFrame capitalize(String payload) {
+        Stripe stripe = stripeOf(payload);
+        EncodedFrame frame = stripe.get(payload);
+        if (frame != null) {
+            hits.increment();
+            return frame;
+        }
+        misses.increment();
+
+        frame = EncodedFrame.shared(new Message(Command.SEND, Collections.singletonList(payload.toUpperCase())));
+        long size = sizeOf(payload, frame);
+        if (size > maxEntryBytes) {
+            rejected.increment();
+        } else {
+            stripe.put(payload, frame, size);
+        }
+        return frame;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** Payloads that were too large to cache. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getSizeBytes() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.getSizeBytes();
+        }
+        return size;
+    }
+
+    public String summary() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("hits=%d misses=%d hitRate=%.1f%% evictions=%d rejected=%d size=%dKB",
+                hitCount, getMisses(), total == 0 ? 0 : 100.0 * hitCount / total,
+                getEvictions(), getRejected(), getSizeBytes() / 1024);
+    }
+
+    private Stripe stripeOf(String payload) {
+        int hash = payload.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    private static long sizeOf(String payload, EncodedFrame frame) {
+        // The key and the upper-cased copy are UTF-16, the frame keeps up to one encoding per framing
+        return ENTRY_OVERHEAD_BYTES + 4L * payload.length() + 2L * frame.encodedLength(TextFrameCodec.INSTANCE);
+    }
+
+    private static class Entry {
+        private EncodedFrame frame;
+        private long size;
+
+        Entry(EncodedFrame frame, long size) {
+            this.frame = frame;
+            this.size = size;
+        }
+    }
+
+    private class Stripe {
+        // Insertion ordered, so the first entry of each segment is the least recently used
+        private LinkedHashMap<String, Entry> probation;
+        private LinkedHashMap<String, Entry> protectedEntries;
+        private long budgetBytes;
+        private long protectedBudgetBytes;
+        private long probationBytes;
+        private long protectedBytes;
+
+        Stripe(long budgetBytes) {
+            probation = new LinkedHashMap<>();
+            protectedEntries = new LinkedHashMap<>();
+            this.budgetBytes = budgetBytes;
+            protectedBudgetBytes = (long) (budgetBytes * PROTECTED_SHARE);
+        }
+
+        synchronized EncodedFrame get(String payload) {
+            Entry entry = protectedEntries.remove(payload);
+            if (entry != null) {
+                // Re-insert to mark it most recently used
+                protectedEntries.put(payload, entry);
+                return entry.frame;
+            }
+
+            entry = probation.remove(payload);
+            if (entry == null) {
+                return null;
+            }
+
+            // A second hit earns the entry a place in the protected segment
+            probationBytes -= entry.size;
+            protectedEntries.put(payload, entry);
+            protectedBytes += entry.size;
+            demoteOverflow();
+            return entry.frame;
+        }
+
+        /** Adds an entry on probation, evicting the least recently used ones to make room. */
+        synchronized void put(String payload, EncodedFrame frame, long size) {
+            if (probation.containsKey(payload) || protectedEntries.containsKey(payload)) {
+                // Another thread cached it while we were computing
+                return;
+            }
+            probation.put(payload, new Entry(frame, size));
+            probationBytes += size;
+            evictOverflow();
+        }
+
+        synchronized long getSizeBytes() {
+            return probationBytes + protectedBytes;
+        }
+
+        private void demoteOverflow() {
+            Iterator<Map.Entry<String, Entry>> oldest = protectedEntries.entrySet().iterator();
+            while (protectedBytes > protectedBudgetBytes && oldest.hasNext()) {
+                Map.Entry<String, Entry> demoted = oldest.next();
+                oldest.remove();
+                protectedBytes -= demoted.getValue().size;
+
+                // Demoted entries get one more chance at the most recently used end of probation
+                probation.put(demoted.getKey(), demoted.getValue());
+                probationBytes += demoted.getValue().size;
+            }
+            evictOverflow();
+        }
+
+        private void evictOverflow() {
+            Iterator<Entry> oldest = probation.values().iterator();
+            while (probationBytes + protectedBytes > budgetBytes && oldest.hasNext()) {
+                probationBytes -= oldest.next().size;
+                oldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A front end that spreads client connections over several server nodes.
+ * Each accepted client is paired with a new connection to one node and
+ * the bytes are copied both ways on an event loop, so the router never
+ * parses the protocol and works for text and binary framing alike.
+ *
+ * Run it with "--nodes host:port,host:port" and optionally "--port"
+ * (9898 by default) and "--balance least" or "--balance hash".
+ * Least-connections sends each client to the node with the fewest open
+ * connections through this router. Consistent hashing sends every client
+ * from the same address to the same node and only moves a small share of
+ * clients when nodes are added or removed.
+ */
+public class Router {
+    // Points per node on the hash ring, more points spread clients more evenly
+    private static final int VIRTUAL_NODES = 128;
+    // How long a node gets to accept a connection before the next one is tried
+    private static final long CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private int port;
+    private List<InetSocketAddress> nodes;
+    private boolean consistentHashing;
+    private AtomicInteger[] activeConnections;
+    private TreeMap<Integer, Integer> ring;
+    private EventLoopGroup eventLoops;
+
+    public Router(int port, List<InetSocketAddress> nodes, boolean consistentHashing) {
+        this.port = port;
+        this.nodes = nodes;
+        this.consistentHashing = consistentHashing;
+
+        activeConnections = new AtomicInteger[nodes.size()];
+        ring = new TreeMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            activeConnections[i] = new AtomicInteger();
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring.put(mix((nodes.get(i).toString() + "#" + v).hashCode()), i);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = Options.parse(args, 0);
+        if (!options.containsKey("nodes")) {
+            System.out.println("Usage: Router --nodes host:port,host:port [--port 9898] [--balance least|hash]");
+            return;
+        }
+
+        new Router(Integer.parseInt(options.getOrDefault("port", "9898")), Options.parseAddresses(options.get("nodes")),
+                options.getOrDefault("balance", "least").equals("hash")).start();
+    }
+
+    public void start() throws IOException {
+        ServerSocketChannel listener = ServerSocketChannel.open();
+        listener.bind(new InetSocketAddress(port), 1024);
+        eventLoops = new EventLoopGroup(Runtime.getRuntime().availableProcessors());
+        Log.info("Router listening on " + port + " for " + nodes.size() + " nodes using "
+                + (consistentHashing ? "consistent hashing" : "least connections"));
+
+        while (true) {
+            // Nodes are connected to on the event loops, so one that doesn't answer never holds up accepting
+            new NodeConnection(listener.accept(), eventLoops.next()).start();
+        }
+    }
+
+    private int pickNode(SocketChannel client) throws IOException {
+        if (consistentHashing) {
+            // Hash the client's host, so reconnects from the same machine land on the same node
+            InetSocketAddress address = (InetSocketAddress) client.getRemoteAddress();
+            Map.Entry<Integer, Integer> point = ring.ceilingEntry(mix(address.getAddress().hashCode()));
+            return point != null ? point.getValue() : ring.firstEntry().getValue();
+        }
+
+        int best = 0;
+        for (int i = 1; i < activeConnections.length; i++) {
+            if (activeConnections[i].get() < activeConnections[best].get()) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Connects a client to a node without blocking, on the event loop that
+     * then splices the two, falling back to the other nodes in turn if the
+     * chosen one refuses or doesn't answer in time.
+     */
+    private class NodeConnection implements ChannelHandler {
+        private SocketChannel client;
+        private EventLoop loop;
+        private int first;
+        private int attempt;
+        private int node;
+        private SocketChannel backend;
+        private SelectionKey key;
+
+        NodeConnection(SocketChannel client, EventLoop loop) {
+            this.client = client;
+            this.loop = loop;
+        }
+
+        void start() {
+            loop.execute(() -> {
+                try {
+                    first = pickNode(client);
+                } catch (IOException e) {
+                    giveUp(e);
+                    return;
+                }
+                connectNext(null);
+            });
+        }
+
+        private void connectNext(IOException failure) {
+            if (attempt == nodes.size()) {
+                giveUp(failure);
+                return;
+            }
+            node = (first + attempt) % nodes.size();
+            int thisAttempt = ++attempt;
+
+            try {
+                backend = SocketChannel.open();
+                backend.configureBlocking(false);
+                if (backend.connect(nodes.get(node))) {
+                    connected();
+                    return;
+                }
+                key = backend.register(loop.getSelector(), SelectionKey.OP_CONNECT, this);
+                loop.schedule(() -> {
+                    if (attempt == thisAttempt && backend.isConnectionPending()) {
+                        failed(new SocketTimeoutException("Node " + node + " did not answer in "
+                                + CONNECT_TIMEOUT_MILLIS + " ms"));
+                    }
+                }, TimeUnit.MILLISECONDS.toNanos(CONNECT_TIMEOUT_MILLIS));
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        @Override
+        public void onConnectable() {
+            try {
+                if (backend.finishConnect()) {
+                    // The splice takes the key over for reading
+                    key.interestOps(0);
+                    connected();
+                }
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        @Override
+        public void onReadable() {
+        }
+
+        @Override
+        public void onWritable() {
+        }
+
+        @Override
+        public void onFailed() {
+            try {
+                backend.close();
+                client.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close client connection: " + e.getMessage());
+            }
+        }
+
+        private void connected() {
+            int node = this.node;
+            activeConnections[node].incrementAndGet();
+            new Splice(client, backend, loop, () -> activeConnections[node].decrementAndGet()).start();
+        }
+
+        private void failed(IOException failure) {
+            try {
+                // Closing cancels the key, so a late connect event can't reach us
+                backend.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close node connection: " + e.getMessage());
+            }
+            connectNext(failure);
+        }
+
+        private void giveUp(IOException failure) {
+            try {
+                Log.warn("No node accepted the connection from " + client.getRemoteAddress()
+                        + ": " + failure.getMessage());
+                client.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close client connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        // Spread similar inputs such as neighbouring addresses around the ring
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,593 @@
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import javax.net.ssl.SSLEngine;
+
+/**
+ * A non-blocking socket serviced by an {@link EventLoop}. It speaks the
+ * same line based protocol as {@link ObservableSocket} but never holds
+ * a thread while the connection is idle.
+ *
+ * Either side may send BINARY to switch the connection to length prefixed
+ * frames. The receiving side answers BINARY and switches both directions,
+ * or TEXT if it can't, in which case the connection stays line based.
+ *
+ * With an SSLEngine the connection speaks TLS through a {@link TlsChannel}.
+ * The handshake runs on the event loop alongside every other connection,
+ * and frames queued before it completes are sent once it does.
+ *
+ * All reads, writes and handler calls happen on the owning event loop
+ * thread. Other threads may only queue messages or stop the socket.
+ */
+public class SelectorSocket implements MessageSocket, ChannelHandler {
+    private static final int BUFFER_SIZE = 8192;
+    // Senders are refused once this much output is waiting for the peer, room for the largest answer and then some
+    private static final long MAX_PENDING_BYTES = FrameCodec.MAX_FRAME_SIZE + 1024 * 1024;
+
+    private SocketChannel channel;
+    // The channel itself, or the TLS layer over it
+    private ByteChannel io;
+    private TlsChannel tls;
+    private EventLoop loop;
+    private SelectionKey key;
+    private volatile boolean shouldRun = true;
+    private volatile long lastReceivedNanos = System.nanoTime();
+    private List<Function<Message, String>> onMessageHandlers;
+    private volatile Exec onClose;
+    private ConnectionStats stats;
+    private TokenBucket rateLimit;
+    // Reading is paused while the rate limit is out of tokens, only touched by the event loop
+    private boolean throttled;
+    private List<FastPath> fastPaths;
+
+    // Framing state, only touched by the event loop apart from the upgrade request
+    private FrameCodec inboundCodec = TextFrameCodec.INSTANCE;
+    private FrameCodec outboundCodec = TextFrameCodec.INSTANCE;
+    private volatile boolean upgradeRequested;
+    private boolean awaitingUpgrade;
+    // How far the frame at the start of the read buffer has been scanned
+    private FrameScan frameScan = new FrameScan();
+
+    // Both buffers stay in fill mode between events. They are borrowed from the pool while they
+    // hold bytes and null otherwise, so an idle connection holds no buffers
+    private BufferPool bufferPool;
+    private ByteBuffer readBuffer;
+    private ByteBuffer writeBuffer;
+
+    // Outbound frames are encoded by the event loop, so producers only pay for the enqueue
+    private OutboundQueue sendQueue;
+    // Taken from the queue but not yet encoded for lack of room, only touched by the event loop
+    private EncodedFrame unsent;
+    private AtomicBoolean flushScheduled;
+
+    public SelectorSocket(SocketChannel channel, EventLoop loop) throws IOException {
+        this(channel, loop, null);
+    }
+
+    /** A socket that speaks TLS through engine, or plaintext if engine is null. */
+    public SelectorSocket(SocketChannel channel, EventLoop loop, SSLEngine engine) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        channel.configureBlocking(false);
+        if (engine != null) {
+            // Handshake flights are several small records in a row, Nagle would hold each back for the peer's ack
+            channel.socket().setTcpNoDelay(true);
+            tls = new TlsChannel(channel, engine, loop, this::onTlsReady);
+            io = tls;
+        } else {
+            io = channel;
+        }
+
+        onMessageHandlers = new ArrayList<>();
+        fastPaths = new ArrayList<>();
+        bufferPool = BufferPool.DEFAULT;
+        sendQueue = new OutboundQueue(MAX_PENDING_BYTES);
+        flushScheduled = new AtomicBoolean();
+    }
+
+    public void setOnClose(Exec onClose) {
+        this.onClose = onClose;
+    }
+
+    public void setStats(ConnectionStats stats) {
+        this.stats = stats;
+        sendQueue.setStats(stats);
+    }
+
+    public void setBackpressure(Backpressure backpressure, Exec onDisconnect) {
+        sendQueue.setBackpressure(backpressure, onDisconnect);
+    }
+
+    public void setRateLimit(TokenBucket rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    public int getQueuedFrames() {
+        return sendQueue.size();
+    }
+
+    public void addOnMessageHandler(Function<Message, String> handler) {
+        onMessageHandlers.add(handler);
+    }
+
+    @Override
+    public void addFastPath(String command, String response, ByteTransform transform) {
+        fastPaths.add(new FastPath(command, response, transform));
+    }
+
+    private void notifyHandlers(Message message) {
+        onMessageHandlers.forEach(handler -> handler.apply(message));
+    }
+
+    public long getLastReceivedNanos() {
+        return lastReceivedNanos;
+    }
+
+    public boolean sendMessage(Message message) {
+        return sendFrame(EncodedFrame.of(message));
+    }
+
+    public boolean sendFrame(EncodedFrame frame) {
+        if (!sendQueue.offer(frame)) {
+            // Counted in the stats, a slow client would flood the log with these
+            Log.debug("Dropped " + frame.getMessage().getCommand() + " message, too much output is pending");
+            return false;
+        }
+        if (stats != null) {
+            stats.sent(frame.getMessage().getType());
+        }
+        scheduleFlush();
+        return true;
+    }
+
+    /**
+     * Asks the peer to switch to binary framing. Messages sent after this
+     * are held back until the peer answers.
+     */
+    public void requestBinary() {
+        upgradeRequested = true;
+        sendMessage(new Message(Command.BINARY, null));
+    }
+
+    public void stop() {
+        shouldRun = false;
+
+        if (sendQueue.isAbandoned()) {
+            // The peer stopped reading, write what fits without waiting and close
+            loop.execute(() -> {
+                flush();
+                close();
+            });
+            return;
+        }
+
+        // Send all remaining messages, the socket is closed once they are written
+        loop.execute(this::flush);
+    }
+
+    public void shutdown(Message last) {
+        loop.execute(() -> {
+            if (key != null && key.isValid()) {
+                // Read nothing more, but answer the frames that already arrived
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                shouldRun = false;
+                processFrames();
+            }
+            sendMessage(last);
+            stop();
+        });
+    }
+
+    public void shutdownNow() {
+        shouldRun = false;
+        loop.execute(this::close);
+    }
+
+    /**
+     * Registers the channel with the event loop. Reading starts once the
+     * loop picks up the registration.
+     */
+    @Override
+    public void run() {
+        loop.execute(() -> {
+            try {
+                key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+            } catch (ClosedChannelException e) {
+                Log.debug("Socket closed before it could be registered!");
+                return;
+            }
+            Log.debug("Started running");
+
+            if (tls != null) {
+                try {
+                    tls.beginHandshake();
+                } catch (IOException e) {
+                    Log.debug("TLS handshake failed: " + e.getMessage());
+                    close();
+                    return;
+                }
+            }
+
+            // Messages may have been queued before the registration
+            flush();
+        });
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    @Override
+    public void onReadable() {
+        do {
+            if (readBuffer == null) {
+                readBuffer = bufferPool.acquire(BUFFER_SIZE);
+            }
+            int read;
+            try {
+                read = io.read(readBuffer);
+            } catch (IOException e) {
+                read = -1;
+            }
+
+            if (read < 0) {
+                Log.debug("Socket closed unexpectedly!");
+                close();
+                return;
+            }
+            lastReceivedNanos = System.nanoTime();
+            if (stats != null) {
+                stats.read(read);
+            }
+            processFrames();
+
+            // TLS may have decrypted more than fit, and no read event is coming for it
+        } while (tls != null && tls.hasBufferedInput() && !throttled && channel.isOpen());
+
+        if (tls != null && tls.hasPendingOutput() && key.isValid()) {
+            // A handshake reply the channel couldn't take yet
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Runs once the TLS handshake or one of its slow steps is done, to send
+     * what was held back and read what arrived in the meantime.
+     */
+    private void onTlsReady() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        flush();
+        if (shouldRun && !throttled && channel.isOpen()) {
+            onReadable();
+        }
+    }
+
+    /** Handles every whole frame in the read buffer that the rate limit allows. */
+    private void processFrames() {
+        if (readBuffer == null) {
+            return;
+        }
+        readBuffer.flip();
+        try {
+            while (channel.isOpen() && readBuffer.hasRemaining()) {
+                // Check for a token before parsing, but only take it once a whole frame is handled
+                if (rateLimit != null && !rateLimit.hasToken()) {
+                    throttle();
+                    break;
+                }
+
+                // Carries on from the previous read, so a frame arriving in many reads is only scanned once
+                if (inboundCodec.scan(readBuffer, frameScan) < 0) {
+                    break;
+                }
+                frameScan.reset();
+
+                if (tryFastPath()) {
+                    takeToken();
+                    continue;
+                }
+
+                Message message = inboundCodec.decode(readBuffer);
+
+                // Frames with unknown commands are thrown away, but they cost a token like any other
+                takeToken();
+                if (message != null) {
+                    onFrame(message);
+                }
+            }
+        } catch (ProtocolException e) {
+            Log.warn("Closing socket after protocol error: " + e.getMessage());
+            close();
+            return;
+        }
+        if (!channel.isOpen()) {
+            // A handler closed the connection, which gave the buffers back
+            return;
+        }
+        readBuffer.compact();
+
+        if (readBuffer.position() == 0) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        } else if (!readBuffer.hasRemaining() && !throttled) {
+            // Make room for frames larger than the buffer, unless it is only full because we are throttled
+            readBuffer = bufferPool.grow(readBuffer, readBuffer.capacity() * 2);
+        }
+
+        // Send whatever the fast paths wrote in one go
+        if (writeBuffer != null) {
+            flush();
+        }
+    }
+
+    private void takeToken() {
+        if (rateLimit != null) {
+            rateLimit.tryAcquire();
+        }
+    }
+
+    /**
+     * Stops reading until the next token is due. Unread data waits in the
+     * kernel and in our buffer, and once both fill up TCP stops the client.
+     */
+    private void throttle() {
+        throttled = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        if (stats != null) {
+            stats.throttled();
+        }
+        loop.schedule(this::resumeReading, rateLimit.nanosUntilToken());
+    }
+
+    private void resumeReading() {
+        if (!key.isValid() || !shouldRun) {
+            // Stopping, whatever is still unread stays that way
+            return;
+        }
+        throttled = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+
+        // Frames that arrived before the pause are already buffered and won't raise another read event
+        processFrames();
+        if (tls != null && tls.hasBufferedInput()) {
+            onReadable();
+        }
+    }
+
+    private boolean tryFastPath() {
+        if (fastPaths.isEmpty() || awaitingUpgrade || inboundCodec != outboundCodec) {
+            return false;
+        }
+
+        // Keep the response behind anything already queued for the peer
+        if (!encodePending()) {
+            return false;
+        }
+        if (writeBuffer == null) {
+            writeBuffer = bufferPool.acquire(BUFFER_SIZE);
+        }
+
+        // Indexed to avoid an iterator per frame
+        for (int i = 0; i < fastPaths.size(); i++) {
+            FastPath fastPath = fastPaths.get(i);
+            if (inboundCodec.transform(readBuffer, fastPath.command, fastPath.response, fastPath.transform, writeBuffer)) {
+                if (stats != null) {
+                    stats.received(fastPath.commandType);
+                    stats.sent(fastPath.responseType);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onFrame(Message message) {
+        // Decoded frames always carry their command type
+        switch (message.getType()) {
+            case BINARY:
+                if (upgradeRequested) {
+                    // The peer accepted our request, everything from here on is binary
+                    upgradeRequested = false;
+                    awaitingUpgrade = false;
+                    inboundCodec = BinaryFrameCodec.INSTANCE;
+                    outboundCodec = BinaryFrameCodec.INSTANCE;
+                    flush();
+                } else {
+                    // The peer asked to upgrade, its next frame is binary and ours follow the answer
+                    inboundCodec = BinaryFrameCodec.INSTANCE;
+                    sendMessage(message);
+                }
+                return;
+            case TEXT:
+                if (upgradeRequested) {
+                    // The peer refused, carry on with the line protocol
+                    upgradeRequested = false;
+                    awaitingUpgrade = false;
+                    flush();
+                }
+                return;
+            default:
+                if (stats != null) {
+                    stats.received(message.getType());
+                }
+                notifyHandlers(message);
+        }
+    }
+
+    @Override
+    public void onWritable() {
+        flush();
+    }
+
+    @Override
+    public void onFailed() {
+        close();
+    }
+
+    private void flush() {
+        // Clear the flag first so messages queued while we drain schedule another flush
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+
+        try {
+            while (true) {
+                boolean drained = encodePending();
+                if (writeBuffer == null) {
+                    // Nothing was queued
+                    break;
+                }
+
+                if (writeBuffer.position() > 0) {
+                    writeBuffer.flip();
+                    int written = io.write(writeBuffer);
+                    if (stats != null && written > 0) {
+                        stats.wrote(written);
+                    }
+                    boolean writtenAll = !writeBuffer.hasRemaining();
+                    writeBuffer.compact();
+
+                    if (!writtenAll) {
+                        if (tls == null || tls.hasPendingOutput()) {
+                            // The peer is not keeping up, wait until the channel is writable again
+                            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        }
+                        // Otherwise the TLS handshake is still going, and onTlsReady flushes once it is done
+                        return;
+                    }
+                }
+                if (drained) {
+                    break;
+                }
+            }
+
+            // The last record, or a handshake message, may still be waiting for the channel
+            if (tls != null && !tls.flush()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        } catch (IOException e) {
+            Log.debug("Socket closed unexpectedly!");
+            close();
+            return;
+        }
+
+        // Everything is written, give the buffer back until there is more
+        if (writeBuffer != null) {
+            bufferPool.release(writeBuffer);
+            writeBuffer = null;
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        if (!shouldRun) {
+            close();
+        }
+    }
+
+    /**
+     * Encodes queued frames into the write buffer. Returns false if the
+     * buffer filled up before the queue was drained.
+     */
+    private boolean encodePending() {
+        EncodedFrame frame;
+        while (!awaitingUpgrade && (frame = unsent != null ? unsent : sendQueue.poll()) != null) {
+            if (writeBuffer == null) {
+                writeBuffer = bufferPool.acquire(BUFFER_SIZE);
+            }
+            if (!frame.writeTo(outboundCodec, writeBuffer)) {
+                // Keep hold of it, the queue may drop frames from its head while we wait
+                unsent = frame;
+                if (writeBuffer.position() > 0) {
+                    return false;
+                }
+
+                // A single frame larger than the buffer
+                writeBuffer = bufferPool.grow(writeBuffer, frame.encodedLength(outboundCodec));
+                continue;
+            }
+            unsent = null;
+            frame.settled();
+
+            if (frame.getMessage().getType() == Command.BINARY) {
+                if (upgradeRequested) {
+                    // Hold everything else back until we know which framing the peer expects
+                    awaitingUpgrade = true;
+                } else {
+                    // That was our answer to the peer's request, so switch after it
+                    outboundCodec = BinaryFrameCodec.INSTANCE;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static class FastPath {
+        String command;
+        String response;
+        ByteTransform transform;
+        // Resolved once for the stats
+        Command commandType;
+        Command responseType;
+
+        FastPath(String command, String response, ByteTransform transform) {
+            this.command = command;
+            this.response = response;
+            this.transform = transform;
+            commandType = Command.of(command);
+            responseType = Command.of(response);
+        }
+    }
+
+    private void close() {
+        shouldRun = false;
+        if (!channel.isOpen()) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        if (tls != null) {
+            tls.close();
+        }
+        if (unsent != null) {
+            unsent.settled();
+            unsent = null;
+        }
+        sendQueue.close();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close socket: " + e.getMessage());
+        }
+        releaseBuffers();
+        Log.debug("Stopped running");
+
+        if (onClose != null) {
+            onClose.exec();
+        }
+    }
+
+    private void releaseBuffers() {
+        if (readBuffer != null) {
+            bufferPool.release(readBuffer);
+            readBuffer = null;
+        }
+        if (writeBuffer != null) {
+            bufferPool.release(writeBuffer);
+            writeBuffer = null;
+        }
+    }
+}
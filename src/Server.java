@@ -1,187 +1,603 @@
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.net.ssl.SSLContext;
 
 public class Server {
+    // Clients send a heartbeat every second and are dropped after missing this many
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 1000;
+    private static final int MAX_MISSED_HEARTBEATS = 5;
+
+    // A client that lets this much output pile up is a slow consumer until it is back under the low watermark
+    private static final long DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+    private static final long DEFAULT_LOW_WATERMARK = 256 * 1024;
+
+    // Clients get this long to receive the answers to requests they already sent when disconnected by STOP or KILLALL
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 5000;
+
+    // Written straight to connections over the limit, before any per-connection state exists
+    private static final byte[] REJECTION = rejectionFrames();
+
     private int port;
+    private ServerMode mode;
     private int clientNum;
+    private int nextClientId;
+    private int clientIdStride;
     private ExecutorService clientPool;
+    private EventLoopGroup eventLoops;
+    private TimingWheel heartbeatWheel;
     private ServerViewModel model;
     private ServerView view;
+    private int backlog;
+    private int maxConnections;
+    private double rateLimitPerSecond;
+    private int rateLimitBurst;
+    private Backpressure backpressure;
+    private SSLContext tls;
+    private long drainTimeoutMillis;
+    private boolean headless;
+    private int adminPort;
+    private AdminCommands adminCommands;
+    private ResultCache resultCache;
+    private ParallelUpperCase parallelUpperCase;
+    private ServerStats stats;
+    private Cluster cluster;
     private boolean shouldRun;
     private ServerSocket listener;
 
     public Server(int port) {
+        this(port, ServerMode.THREAD_POOL);
+    }
+
+    public Server(int port, ServerMode mode) {
         this.port = port;
+        this.mode = mode;
         clientNum = 0;
-        clientPool = Executors.newCachedThreadPool();
+        nextClientId = 1;
+        clientIdStride = 1;
+        clientPool = mode == ServerMode.VIRTUAL ? newVirtualThreadPool() : Executors.newCachedThreadPool();
+        heartbeatWheel = new TimingWheel("heartbeat-wheel", 100, 512);
         model = new ServerViewModel();
-        view = new ServerView(model);
+        parallelUpperCase = ParallelUpperCase.DEFAULT;
+        backpressure = new Backpressure(DEFAULT_HIGH_WATERMARK, DEFAULT_LOW_WATERMARK, Backpressure.Policy.DISCONNECT);
+        stats = new ServerStats();
+        stats.setQueuedFrames(this::queuedFrames);
+        drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MILLIS;
         shouldRun = true;
+
+        adminCommands = new AdminCommands()
+                .register("BROADCAST", "BROADCAST <Message>: Sends a message to all connected clients", this::broadcast)
+                .register("LIST", "LIST: List all connected clients", this::list)
+                .register("KILL", "KILL <Client ID>: Kill the specified client", this::kill)
+                .register("KILLALL", "KILLALL: Answer what all connected clients have sent and disconnect them", this::killAll)
+                .register("SEND", "SEND <Client ID> <Message>: Send the specified client a message", this::send)
+                .register("SENDMANY", "SENDMANY <Comma Separated IDs> <Message>: Send the specified clients a message", this::sendMany)
+                .register("STOP", "STOP: Stop accepting clients, drain all open connections and stop the server", this::stop)
+                .register("CACHE", "CACHE: Show the result cache counters", this::cache)
+                .register("STATS", "STATS [Client ID]: Show the server counters, or those of one client", this::stats);
+    }
+
+    /** Shares one cache of capitalized payloads between all clients. Null turns caching off. */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /** Sets how many connections may wait to be accepted. 0, the default, leaves it to the platform. */
+    public void setBacklog(int backlog) {
+        this.backlog = backlog;
+    }
+
+    /**
+     * Turns away clients beyond this many open connections with a SEND
+     * saying so and a KILL. 0, the default, accepts everyone.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Limits every client to this many messages per second, with bursts of
+     * up to burst messages. A rate of 0, the default, leaves clients unlimited.
+     */
+    public void setRateLimit(double perSecond, int burst) {
+        rateLimitPerSecond = perSecond;
+        rateLimitBurst = burst;
+    }
+
+    /**
+     * Sets how much output may wait for a client before it counts as a
+     * slow consumer and what to do about it. By default clients that let
+     * more than 1MB pile up are disconnected. Null leaves only the hard
+     * cap of each socket's queue.
+     */
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Speaks TLS to every client, with the server's key and certificate
+     * from context. Only the selector mode supports it, so handshakes run
+     * on the event loops instead of taking a thread each. Null, the
+     * default, speaks plaintext.
+     */
+    public void setTls(SSLContext tls) {
+        this.tls = tls;
     }
 
+    /**
+     * Sets how long STOP and KILLALL wait for clients to receive the
+     * answers to the requests they already sent before closing them
+     * anyway. 5 seconds by default.
+     */
+    public void setDrainTimeout(long millis) {
+        drainTimeoutMillis = millis;
+    }
+
+    /**
+     * Runs without a window, so AWT is never loaded. Console commands are
+     * then read from stdin and the console log goes to stdout.
+     */
+    public void setHeadless(boolean headless) {
+        this.headless = headless;
+    }
+
+    /** Also accepts console commands on this port on the loopback address. 0, the default, turns it off. */
+    public void setAdminPort(int adminPort) {
+        this.adminPort = adminPort;
+    }
+
+    /** Also appends the console log to a file, written from a background thread. */
+    public void setLogFile(Path file) throws IOException {
+        AsyncLogWriter writer = new AsyncLogWriter(file);
+        model.getLog().addSink(writer);
+
+        // CapitalizeServer exits the JVM once start() returns, so write out whatever is still queued on the way
+        Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "log-writer-shutdown"));
+    }
+
+    /** Sets how large a payload must be before it is upper-cased on several cores. */
+    public void setParallelUpperCase(ParallelUpperCase parallelUpperCase) {
+        this.parallelUpperCase = parallelUpperCase;
+    }
+
+    /**
+     * Makes this server one node of a cluster. Client ids are then unique
+     * across the cluster and console commands reach clients on every node.
+     */
+    public void setCluster(Cluster cluster) {
+        this.cluster = cluster;
+        nextClientId = cluster.getFirstClientId();
+        clientIdStride = cluster.getNodeCount();
+    }
+
+    /**
+     * Runs the server on this thread until STOP, then drains the clients
+     * and returns. The console and admin threads are left to whoever
+     * started the server, it doesn't exit the process.
+     */
     public void start() {
+        if (headless) {
+            // There is no window to show the console log in
+            model.getLog().addSink(Log::info);
+        }
         model.addText("The capitalization server is starting...");
+        if (tls != null && mode != ServerMode.SELECTOR) {
+            model.addText("TLS needs the selector mode, start the server in selector mode to use it");
+            return;
+        }
 
         try {
-            listener = new ServerSocket(port);
+            if (mode == ServerMode.SELECTOR) {
+                // Sockets accepted from a channel backed listener expose their channel
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                channel.bind(new InetSocketAddress(port), backlog);
+                listener = channel.socket();
+                eventLoops = new EventLoopGroup(Runtime.getRuntime().availableProcessors());
+            } else {
+                listener = new ServerSocket(port, backlog);
+            }
         } catch (IOException e) {
             model.addText("Failed to start the server: " + e.getMessage());
             return;
         }
-        view.setOnCommandListener(this::handleCommand);
-        view.start();
 
-        System.out.println("Server started");
+        AdminCommands consoleCommands = adminCommands;
+        if (cluster != null) {
+            try {
+                cluster.listen(adminCommands);
+            } catch (IOException e) {
+                model.addText("Failed to open the cluster admin channel: " + e.getMessage());
+                return;
+            }
+            consoleCommands = cluster.route(adminCommands);
+        }
+        AdminChannel adminChannel = new AdminChannel(consoleCommands);
+        if (adminPort > 0) {
+            try {
+                adminChannel.listen(adminPort);
+            } catch (IOException e) {
+                model.addText("Failed to open the admin port: " + e.getMessage());
+                return;
+            }
+        }
+        if (headless) {
+            adminChannel.readStdin();
+        } else {
+            view = new ServerView(model);
+            view.setOnCommandListener(consoleCommands::execute);
+            view.start();
+        }
+        registerStatsBean();
+
+        Log.info("Server started");
 
         while (shouldRun) {
             // Accept a client connection
             Socket newClient;
             try {
                 newClient = listener.accept();
-                this.clientNum++;
-                System.out.println("New client connection with client #: " + clientNum + " at " + newClient.toString());
-            } catch (SocketException e) {
-                System.out.println("Server is shutting down...");
+                if (maxConnections > 0 && stats.getActiveConnections() >= maxConnections) {
+                    reject(newClient);
+                    continue;
+                }
+                clientNum = nextClientId;
+                nextClientId += clientIdStride;
+                if (Log.isDebugEnabled()) {
+                    Log.debug("New client connection with client #: " + clientNum + " at " + newClient.toString());
+                }
+            } catch (SocketException | ClosedChannelException e) {
+                // STOP closes the listener to end the loop
+                Log.info("Server is shutting down...");
                 continue;
             } catch (IOException e) {
-                System.out.println("Failed to accept client connection: " + e.getMessage());
-                e.printStackTrace();
+                Log.error("Failed to accept client connection: " + e.getMessage());
                 continue;
             }
 
             try {
                 // Create the Capitalizer task to handle the connection
-                Capitalizer capitalizer = new Capitalizer(clientNum, newClient);
+                Capitalizer capitalizer = new Capitalizer(clientNum, openSocket(newClient));
 
-                // Set on close handler
-                capitalizer.setOnExit(() -> model.killClient(clientNum));
+                capitalizer.setResultCache(resultCache);
+                capitalizer.setParallelUpperCase(parallelUpperCase);
+                capitalizer.setStats(new ConnectionStats(stats));
+                if (rateLimitPerSecond > 0) {
+                    capitalizer.setRateLimit(new TokenBucket(rateLimitPerSecond, rateLimitBurst));
+                }
+                if (backpressure != null) {
+                    capitalizer.setBackpressure(backpressure);
+                }
+
+                // Set on close handlers, KILL stops the client and a closed connection is forgotten
+                capitalizer.setOnExit(() -> model.killClient(capitalizer.getId()));
+                capitalizer.setOnClose(() -> model.removeClient(capitalizer));
 
                 // Set on broadcast handler
-                capitalizer.setOnBroadcast(() -> model.getClients().forEach(client -> {
-                    List<String> args = new ArrayList<>();
-                    args.add("" + capitalizer.getId());
-                    client.sendMessage(new Message("CLIENT_HEARTBEAT", args));
-                }));
+                capitalizer.setOnBroadcast(() -> Broadcaster.broadcast(
+                        new Message("CLIENT_HEARTBEAT", Collections.singletonList("" + capitalizer.getId())),
+                        model.getClients()));
+
+                // Evict the client if it goes quiet
+                capitalizer.watchLiveness(heartbeatWheel, HEARTBEAT_INTERVAL_MILLIS, MAX_MISSED_HEARTBEATS, clientPool);
 
                 // Save a reference to the client using its id as a lookup value
                 model.addClient(capitalizer);
 
-                // Run the Capitalizer using the thread pool
-                clientPool.execute(capitalizer.getThreadRunnable());
+                if (mode == ServerMode.SELECTOR) {
+                    // Selector sockets only register with an event loop, so they don't need a pool thread
+                    capitalizer.getThreadRunnable().run();
+                } else {
+                    // Run the Capitalizer using the thread pool
+                    clientPool.execute(capitalizer.getThreadRunnable());
+                }
 
                 capitalizer.start();
             } catch (IOException e) {
-                System.out.println("Socket fail when instantiating capitalizer thread");
-                e.printStackTrace();
+                Log.error("Socket fail when instantiating capitalizer thread: " + e.getMessage());
             }
         }
 
-        view.close();
-        System.out.println("Server stopped");
+        // Wind down on this thread, it keeps the process up until the clients are drained
+        model.addText(shutDown());
+        if (view != null) {
+            view.close();
+        }
+        Log.info("Server stopped");
     }
 
-    private String handleCommand(String commandString) {
-        String[] args = commandString.split(" ");
-        String command = args[0].toUpperCase();
+    /**
+     * Drains every client and then stops the client pool and the event
+     * loops. Returns how long it took.
+     */
+    private String shutDown() {
+        long start = System.nanoTime();
+        String drained = drainClients(model.removeAllClients());
 
-        switch(command) {
-            case "LIST":
-                StringBuilder response = new StringBuilder();
+        // Pool threads end once their sockets close, so this only waits for stragglers
+        clientPool.shutdown();
+        try {
+            if (!clientPool.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                clientPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            clientPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (eventLoops != null) {
+            eventLoops.stop();
+        }
+        heartbeatWheel.stop();
+        return drained + ", stopped in " + formatMillis(System.nanoTime() - start);
+    }
 
-                response.append("Connected client ids:\n");
+    /** Publishes the server counters over JMX, one bean per port so several servers can share a JVM. */
+    private void registerStatsBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                    new ObjectName("capitalizer:type=ServerStats,port=" + port));
+        } catch (JMException e) {
+            Log.warn("Failed to register the stats MBean: " + e.getMessage());
+        }
+    }
 
-                for (Capitalizer c : model.getClients()) {
-                    response.append("- Client ");
-                    response.append(c.getId());
-                    response.append("\n");
-                }
+    private long queuedFrames() {
+        long queued = 0;
+        for (Capitalizer client : model.getClients()) {
+            queued += client.getQueuedFrames();
+        }
+        return queued;
+    }
 
-                response.append("Total connected clients: ");
-                response.append(model.getClients().size());
-                response.append("\n");
-
-                return response.toString();
-            case "HELP":
-                return  "Available commands:\n" +
-                        "- BROADCAST <Message>: Sends a message to all connected clients\n" +
-                        "- LIST: List all connected clients\n" +
-                        "- KILL <Client ID>: Kill the specified client\n" +
-                        "- KILLALL: Kill all connected clients\n" +
-                        "- SEND <Client ID> <Message>: Send the specified client a message\n" +
-                        "- SENDMANY <Comma Separated IDs> <Message>: Send the specified clients a message\n" +
-                        "- STOP: Close all open connections and stop the server";
-            case "KILL":
-                if (args.length != 2) {
-                    return "Invalid command! Command should be KILL <client id>";
-                }
+    private void reject(Socket client) {
+        stats.connectionRejected();
+        try (Socket socket = client) {
+            if (tls != null) {
+                // The rejection would have to wait for a handshake, just hang up
+                return;
+            }
+            socket.getOutputStream().write(REJECTION);
+        } catch (IOException e) {
+            // The client is gone already, which is what we wanted
+        }
+    }
 
-                boolean killed = model.killClient(Integer.parseInt(args[1]));
+    private static byte[] rejectionFrames() {
+        byte[] send = EncodedFrame.of(new Message(Command.SEND,
+                Collections.singletonList("The server is at capacity, try again later"))).getBytes(TextFrameCodec.INSTANCE);
+        byte[] kill = EncodedFrame.of(new Message(Command.KILL, null)).getBytes(TextFrameCodec.INSTANCE);
 
-                if (killed) {
-                    return "Killed client with id " + args[1];
-                }
-                return "Failed to kill client with id " + args[1];
-            case "STOP":
-                shouldRun = false;
-                model.killAllClients();
+        byte[] frames = Arrays.copyOf(send, send.length + kill.length);
+        System.arraycopy(kill, 0, frames, send.length, kill.length);
+        return frames;
+    }
+
+    private MessageSocket openSocket(Socket socket) throws IOException {
+        if (mode == ServerMode.SELECTOR) {
+            return new SelectorSocket(socket.getChannel(), eventLoops.next(), tls != null ? Tls.serverEngine(tls) : null);
+        }
+        ObservableSocket observable = new ObservableSocket(socket, mode == ServerMode.VIRTUAL);
+        // Fan-outs hand their writes to a thread of the client's own kind
+        observable.setWriter(clientPool);
+        return observable;
+    }
 
-                System.exit(0);
-            case "KILLALL":
-                boolean killedAll = model.killAllClients();
+    /**
+     * Virtual threads only exist on Java 21 and later, so the executor is
+     * looked up reflectively to keep the server building on older JDKs.
+     */
+    private static ExecutorService newVirtualThreadPool() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual threads require Java 21 or later", e);
+        }
+    }
 
-                if (!killedAll) {
-                    return "Failed to kill all clients!";
-                }
-                return "Killed all clients";
-            case "SEND":
-                if (args.length < 3) {
-                    return "Invalid command! Command should be SEND <client id> <message>";
-                }
+    private String list(String[] args) {
+        StringBuilder response = new StringBuilder();
+        List<Capitalizer> clients = model.getClients();
 
-                String finalMessage = convertArgsToString(args, 2);
-                Capitalizer client = model.getClientById(Integer.parseInt(args[1]));
+        response.append("Connected client ids:\n");
 
-                if (client != null) {
-                    client.sendMessage(finalMessage);
-                    return "Sent client " + args[1] + " message: " + finalMessage;
-                } else {
-                    return "Failed to send message to client " + args[1] + "! They do not exist!";
-                }
-            case "SENDMANY":
-                if (args.length < 3) {
-                    return "Invalid command! Command should be SENDMANY <Comma Separated IDs> <Message>!";
-                }
+        for (Capitalizer c : clients) {
+            response.append("- Client ");
+            response.append(c.getId());
+            response.append("\n");
+        }
 
-                String[] clientIds = args[1].split(",");
-                String mClientMessage= convertArgsToString(args, 2);
+        response.append("Total connected clients: ");
+        response.append(clients.size());
+        response.append("\n");
 
-                for (String id : clientIds) {
-                    Capitalizer c = model.getClientById(Integer.parseInt(id));
+        return response.toString();
+    }
 
-                    if (c != null) {
-                        c.sendMessage(mClientMessage);
-                    }
+    private String kill(String[] args) {
+        if (args.length != 2) {
+            return "Invalid command! Command should be KILL <client id>";
+        }
 
-                    return "Sent clients: " + args[1] + " " + mClientMessage;
-                }
-            case "BROADCAST":
-                if (args.length < 2) {
-                    return "Invalid command! Command should be BROADCAST <Message>";
-                }
+        boolean killed;
+        try {
+            killed = model.killClient(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            return "Invalid client id " + args[1];
+        }
+
+        if (killed) {
+            return "Killed client with id " + args[1];
+        }
+        return "Failed to kill client with id " + args[1];
+    }
+
+    private String stop(String[] args) {
+        // Count first, the accept loop starts draining as soon as the listener closes
+        int clients = model.getClients().size();
+
+        // Stop accepting, the accept loop then drains the clients and exits
+        shouldRun = false;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close the listener: " + e.getMessage());
+            }
+        }
+        return "Stopping, draining " + clients + " clients";
+    }
+
+    private String killAll(String[] args) {
+        List<Capitalizer> clients = model.removeAllClients();
+
+        // Draining waits up to the drain timeout, too long to hold up the console or a cluster node's answer
+        try {
+            clientPool.execute(() -> model.addText(drainClients(clients)));
+        } catch (RejectedExecutionException e) {
+            return "The server is stopping, it drains every client anyway";
+        }
+        return "Draining " + clients.size() + " clients";
+    }
+
+    /**
+     * Shuts clients down gracefully, see {@link Capitalizer#shutdown}, and
+     * closes any that are still open at the drain deadline. Returns how
+     * long it took.
+     */
+    private String drainClients(List<Capitalizer> clients) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        for (Capitalizer client : clients) {
+            client.shutdown();
+        }
+
+        int forced = 0;
+        for (Capitalizer client : clients) {
+            boolean closed;
+            try {
+                closed = client.awaitClosed(deadline - System.nanoTime());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = false;
+            }
+            if (!closed) {
+                client.shutdownNow();
+                forced++;
+            }
+        }
+
+        String drained = "Drained " + clients.size() + " clients in " + formatMillis(System.nanoTime() - start);
+        if (forced > 0) {
+            drained += ", " + forced + " closed at the " + drainTimeoutMillis + " ms deadline";
+        }
+        return drained;
+    }
 
-                String messageArg = convertArgsToString(args, 1);
+    private String send(String[] args) {
+        if (args.length < 3) {
+            return "Invalid command! Command should be SEND <client id> <message>";
+        }
 
-                model.getClients().forEach(c -> c.sendMessage(messageArg));
-                return "Sent '" + messageArg + "' to all clients";
-            default:
-                return "Unknown command!";
+        String finalMessage = convertArgsToString(args, 2);
+        Capitalizer client;
+        try {
+            client = model.getClientById(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            return "Invalid client id " + args[1];
+        }
+
+        if (client != null) {
+            client.sendMessage(finalMessage);
+            return "Sent client " + args[1] + " message: " + finalMessage;
+        } else {
+            return "Failed to send message to client " + args[1] + "! They do not exist!";
+        }
+    }
+
+    private String sendMany(String[] args) {
+        if (args.length < 3) {
+            return "Invalid command! Command should be SENDMANY <Comma Separated IDs> <Message>!";
+        }
+
+        String[] clientIds = args[1].split(",");
+        String mClientMessage= convertArgsToString(args, 2);
+        List<Capitalizer> recipients = new ArrayList<>();
+
+        for (String id : clientIds) {
+            Capitalizer c;
+            try {
+                c = model.getClientById(Integer.parseInt(id));
+            } catch (NumberFormatException e) {
+                return "Invalid client id " + id;
+            }
+
+            if (c != null) {
+                recipients.add(c);
+            }
         }
+
+        Broadcaster.broadcast(new Message(Command.SEND, Collections.singletonList(mClientMessage)), recipients)
+                .thenAccept(nanos -> model.addText("Delivered '" + mClientMessage + "' to " + recipients.size()
+                        + " clients in " + formatMillis(nanos)));
+        return "Sending clients: " + args[1] + " " + mClientMessage;
+    }
+
+    private String broadcast(String[] args) {
+        if (args.length < 2) {
+            return "Invalid command! Command should be BROADCAST <Message>";
+        }
+
+        String messageArg = convertArgsToString(args, 1);
+        List<Capitalizer> everyone = model.getClients();
+
+        // The fan-out finishes as each client's writer gets to it, report it once the last one has
+        Broadcaster.broadcast(new Message(Command.SEND, Collections.singletonList(messageArg)), everyone)
+                .thenAccept(nanos -> model.addText("Delivered '" + messageArg + "' to all " + everyone.size()
+                        + " clients in " + formatMillis(nanos)));
+        return "Sending '" + messageArg + "' to all " + everyone.size() + " clients";
+    }
+
+    private String cache(String[] args) {
+        if (resultCache == null) {
+            return "The result cache is disabled";
+        }
+        return "Result cache: " + resultCache.summary();
+    }
+
+    private String stats(String[] args) {
+        if (args.length < 2) {
+            return stats.summary() + "\nPooled buffers: " + BufferPool.DEFAULT.summary();
+        }
+
+        Capitalizer client;
+        try {
+            client = model.getClientById(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            return "Invalid client id " + args[1];
+        }
+        if (client == null) {
+            return "No client with id " + args[1];
+        }
+        return "Client " + args[1] + ": " + client.getStats().summary() + " queued frames=" + client.getQueuedFrames();
+    }
+
+    private String formatMillis(long nanos) {
+        return String.format("%.3f ms", nanos / 1_000_000.0);
     }
 
     private String convertArgsToString(String[] args, int startOffset) {
@@ -0,0 +1,13 @@
+/**
+ * How the server services its client connections.
+ */
+public enum ServerMode {
+    /** One pooled platform thread per connection polling an {@link ObservableSocket}. */
+    THREAD_POOL,
+
+    /** One virtual thread per connection parked in a blocking {@link ObservableSocket} read. Needs Java 21. */
+    VIRTUAL,
+
+    /** A small fixed set of event loop threads multiplexing non-blocking {@link SelectorSocket}s. */
+    SELECTOR
+}
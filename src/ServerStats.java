@@ -0,0 +1,210 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Server-wide counters, updated from every connection at once. Counters
+ * are LongAdders so connections on different cores don't contend for a
+ * cache line, and handler latencies go into a {@link LatencyHistogram}.
+ * Each connection keeps its own {@link ConnectionStats} on top, which
+ * passes everything on to these.
+ */
+public class ServerStats implements ServerStatsMBean {
+    private LongAdder[] messagesIn;
+    private LongAdder[] messagesOut;
+    private LongAdder bytesIn;
+    private LongAdder bytesOut;
+    private LongAdder activeConnections;
+    private LongAdder totalConnections;
+    private LongAdder rejectedConnections;
+    private LongAdder throttled;
+    private LongAdder slowConsumerEvents;
+    private LongAdder droppedFrames;
+    private LatencyHistogram handlerLatency;
+    private volatile LongSupplier queuedFrames;
+
+    public ServerStats() {
+        // One counter per opcode, so counting a message is an array index rather than a map lookup
+        messagesIn = newCounters(Command.values().length);
+        messagesOut = newCounters(Command.values().length);
+        bytesIn = new LongAdder();
+        bytesOut = new LongAdder();
+        activeConnections = new LongAdder();
+        totalConnections = new LongAdder();
+        rejectedConnections = new LongAdder();
+        throttled = new LongAdder();
+        slowConsumerEvents = new LongAdder();
+        droppedFrames = new LongAdder();
+        handlerLatency = new LatencyHistogram();
+        queuedFrames = () -> 0;
+    }
+
+    /** Sets where the total of frames waiting in every connection's queue comes from. */
+    public void setQueuedFrames(LongSupplier queuedFrames) {
+        this.queuedFrames = queuedFrames;
+    }
+
+    public void connectionOpened() {
+        activeConnections.increment();
+        totalConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    public void throttled() {
+        throttled.increment();
+    }
+
+    public void slowConsumer() {
+        slowConsumerEvents.increment();
+    }
+
+    public void dropped(long frames) {
+        droppedFrames.add(frames);
+    }
+
+    public void received(Command command) {
+        messagesIn[command.getOpcode()].increment();
+    }
+
+    public void sent(Command command) {
+        messagesOut[command.getOpcode()].increment();
+    }
+
+    public void read(long bytes) {
+        bytesIn.add(bytes);
+    }
+
+    public void wrote(long bytes) {
+        bytesOut.add(bytes);
+    }
+
+    public void handled(long nanos) {
+        handlerLatency.record(nanos);
+    }
+
+    public long getMessagesIn(Command command) {
+        return messagesIn[command.getOpcode()].sum();
+    }
+
+    public long getMessagesOut(Command command) {
+        return messagesOut[command.getOpcode()].sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    @Override
+    public long getRejectedConnections() {
+        return rejectedConnections.sum();
+    }
+
+    @Override
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public long getSlowConsumerEvents() {
+        return slowConsumerEvents.sum();
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return sum(messagesIn);
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return sum(messagesOut);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getQueuedFrames() {
+        return queuedFrames.getAsLong();
+    }
+
+    @Override
+    public long getHandlerLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(handlerLatency.getPercentileNanos(50));
+    }
+
+    @Override
+    public long getHandlerLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(handlerLatency.getPercentileNanos(99));
+    }
+
+    @Override
+    public long getHandlerLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(handlerLatency.getMaxNanos());
+    }
+
+    @Override
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Connections: ").append(getActiveConnections()).append(" active, ")
+                .append(getTotalConnections()).append(" since start, ")
+                .append(getRejectedConnections()).append(" rejected\n");
+        summary.append("Throttled reads: ").append(getThrottled()).append("\n");
+        summary.append("Slow consumers: ").append(getSlowConsumerEvents()).append(", ")
+                .append(getDroppedFrames()).append(" frames dropped\n");
+        summary.append("Messages: ").append(getMessagesIn()).append(" in, ")
+                .append(getMessagesOut()).append(" out\n");
+        summary.append("Bytes: ").append(getBytesIn()).append(" in, ").append(getBytesOut()).append(" out\n");
+        summary.append("Queued frames: ").append(getQueuedFrames()).append("\n");
+        summary.append("Handler latency: ").append(handlerLatency.summary()).append("\n");
+        summary.append("By command (in/out):");
+        for (Command command : Command.values()) {
+            long in = getMessagesIn(command);
+            long out = getMessagesOut(command);
+            if (in > 0 || out > 0) {
+                summary.append("\n- ").append(command).append(": ").append(in).append("/").append(out);
+            }
+        }
+        return summary.toString();
+    }
+
+    private static LongAdder[] newCounters(int count) {
+        LongAdder[] counters = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static long sum(LongAdder[] counters) {
+        long sum = 0;
+        for (LongAdder counter : counters) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * The server-wide counters as seen over JMX, for jconsole or any other
+ * JMX client. Latencies are in microseconds.
+ */
+public interface ServerStatsMBean {
+    long getActiveConnections();
+
+    long getTotalConnections();
+
+    long getRejectedConnections();
+
+    /** The number of times a client's reads were paused by its rate limit. */
+    long getThrottled();
+
+    /** The number of times a client fell behind on its output. */
+    long getSlowConsumerEvents();
+
+    /** The number of frames thrown away because their client fell behind. */
+    long getDroppedFrames();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getQueuedFrames();
+
+    long getHandlerLatencyP50Micros();
+
+    long getHandlerLatencyP99Micros();
+
+    long getHandlerLatencyMaxMicros();
+
+    /** The same text as the STATS console command. */
+    String summary();
+}
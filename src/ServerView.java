@@ -1,11 +1,21 @@
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 
 public class ServerView {
+    // New log entries are shown at most this often, however fast they arrive
+    private static final int REFRESH_MILLIS = 100;
+
     private JFrame frame;
     private JTextField dataField;
     private JTextArea messageArea;
     private ServerViewModel model;
+    private Timer refreshTimer;
+    // Only touched on the EDT
+    private long nextSequence;
+    private List<String> newEntries;
 
     public ServerView(ServerViewModel model) {
         this.model = model;
@@ -20,11 +30,9 @@ public class ServerView {
         frame.getContentPane().add(dataField, "North");
         frame.getContentPane().add(new JScrollPane(messageArea), "Center");
 
-        // Wire up data reloads from the model
-        model.addObserver((observable, o) -> {
-            ServerViewModel m = (ServerViewModel) observable;
-            messageArea.setText(m.getText());
-        });
+        // Poll the log for new entries instead of re-rendering it on every change
+        newEntries = new ArrayList<>();
+        refreshTimer = new Timer(REFRESH_MILLIS, e -> showNewEntries());
 
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.pack();
@@ -40,9 +48,41 @@ public class ServerView {
 
     public void start() {
         frame.setVisible(true);
+        refreshTimer.start();
     }
 
     public void close() {
+        refreshTimer.stop();
         frame.dispose();
     }
+
+    /**
+     * Appends the entries logged since the last refresh in one go and drops
+     * lines from the top beyond the log's capacity, so each refresh costs
+     * the new text rather than the whole log.
+     */
+    private void showNewEntries() {
+        MessageLog log = model.getLog();
+        nextSequence = log.copySince(nextSequence, newEntries);
+        if (newEntries.isEmpty()) {
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (String entry : newEntries) {
+            text.append(entry).append("\n");
+        }
+        newEntries.clear();
+        messageArea.append(text.toString());
+
+        // The area ends with an empty line after the last newline
+        int excess = messageArea.getLineCount() - 1 - log.getCapacity();
+        if (excess > 0) {
+            try {
+                messageArea.replaceRange("", 0, messageArea.getLineStartOffset(excess));
+            } catch (BadLocationException e) {
+                // The line count came from the same document, so every line exists
+            }
+        }
+    }
 }
@@ -1,69 +1,87 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Observable;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class ServerViewModel extends Observable {
-    private Map<Integer, Capitalizer> connectedClients;
-    private StringBuilder messageLog;
+public class ServerViewModel {
+    private ConcurrentHashMap<Integer, Capitalizer> connectedClients;
+
+    // Rebuilt on every add and remove so broadcasts and LIST can read it without copying
+    private volatile Capitalizer[] clientSnapshot;
+    private MessageLog messageLog;
 
     public ServerViewModel() {
-        connectedClients = new HashMap<>();
-        messageLog = new StringBuilder();
+        connectedClients = new ConcurrentHashMap<>();
+        clientSnapshot = new Capitalizer[0];
+        messageLog = new MessageLog(MessageLog.DEFAULT_CAPACITY);
     }
 
     public void addClient(Capitalizer client) {
         connectedClients.put(client.getId(), client);
-        setChanged();
-        notifyObservers();
+        publishSnapshot();
     }
 
     public boolean killClient(int id) {
-        Capitalizer client = connectedClients.get(id);
+        // Remove first so a client killing itself from its KILL handler is only stopped once
+        Capitalizer client = connectedClients.remove(id);
         if (client == null) {
             return false;
         }
+        publishSnapshot();
         client.stop();
-        connectedClients.remove(id);
-        setChanged();
-        notifyObservers();
         return true;
     }
 
-    public boolean killAllClients() {
-        Set<Integer> clients = connectedClients.keySet();
-        for (Integer key : clients) {
-            Capitalizer client = connectedClients.get(key);
-            if (client == null) {
-                return false;
+    /** Forgets a client whose connection has already closed. */
+    public void removeClient(Capitalizer client) {
+        if (connectedClients.remove(client.getId(), client)) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Removes every client and returns them, still connected, for the
+     * caller to disconnect however it sees fit.
+     */
+    public List<Capitalizer> removeAllClients() {
+        List<Capitalizer> removed = new ArrayList<>();
+        // Iterate the snapshot, clients may connect or leave while we go
+        for (Capitalizer client : clientSnapshot) {
+            if (connectedClients.remove(client.getId(), client)) {
+                removed.add(client);
             }
-            client.stop();
         }
-        connectedClients.clear();
-        setChanged();
-        notifyObservers();
-        return true;
+        publishSnapshot();
+        return removed;
     }
 
+    /**
+     * Returns a read-only view of the clients connected at the time of the
+     * call. It is safe to iterate while clients come and go.
+     */
     public List<Capitalizer> getClients() {
-        return connectedClients.keySet().stream()
-                .map(id -> connectedClients.get(id))
-                .collect(Collectors.toList());
+        return Collections.unmodifiableList(Arrays.asList(clientSnapshot));
     }
 
     public Capitalizer getClientById(int id) {
         return connectedClients.get(id);
     }
 
+    /**
+     * Every writer rebuilds the snapshot from the map after its own change,
+     * so whichever publishes last has seen all the changes before it.
+     */
+    private synchronized void publishSnapshot() {
+        clientSnapshot = connectedClients.values().toArray(new Capitalizer[0]);
+    }
+
     public void addText(String text) {
-        messageLog.append(text + "\n");
-        setChanged();
-        notifyObservers();
+        messageLog.append(text);
     }
 
-    public String getText() {
-        return messageLog.toString();
+    /** The console log, which the view polls for new entries. */
+    public MessageLog getLog() {
+        return messageLog;
     }
 }
@@ -0,0 +1,168 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Copies bytes between two connections on one event loop until both
+ * sides have finished. Each side stops reading while the bytes it already
+ * read are waiting for the other side to accept them, so a slow reader
+ * slows its writer down instead of growing a buffer.
+ *
+ * When one side closes, the other has its output shut down once every
+ * byte has been delivered, so a peer that says goodbye and hangs up is
+ * still heard.
+ *
+ * Buffers come from the {@link BufferPool} and only while bytes are
+ * waiting, so an idle pair of connections holds none.
+ */
+public class Splice {
+    private static final int BUFFER_SIZE = 16384;
+
+    private Endpoint first;
+    private Endpoint second;
+    private EventLoop loop;
+    private Exec onClose;
+    private boolean closed;
+
+    public Splice(SocketChannel first, SocketChannel second, EventLoop loop, Exec onClose) {
+        this.first = new Endpoint(first);
+        this.second = new Endpoint(second);
+        this.first.peer = this.second;
+        this.second.peer = this.first;
+        this.loop = loop;
+        this.onClose = onClose;
+    }
+
+    public void start() {
+        loop.execute(() -> {
+            try {
+                first.register();
+                second.register();
+            } catch (IOException e) {
+                close();
+            }
+        });
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            first.channel.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close spliced connection: " + e.getMessage());
+        }
+        try {
+            second.channel.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close spliced connection: " + e.getMessage());
+        }
+        first.releaseInbound();
+        second.releaseInbound();
+        onClose.exec();
+    }
+
+    private class Endpoint implements ChannelHandler {
+        private SocketChannel channel;
+        private SelectionKey key;
+        private Endpoint peer;
+
+        // Bytes read from this side that the peer has not accepted yet, kept in fill mode, null when there are none
+        private ByteBuffer inbound;
+        private boolean finished;
+
+        Endpoint(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void register() throws IOException {
+            channel.configureBlocking(false);
+            key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+        }
+
+        @Override
+        public void onReadable() {
+            if (inbound == null) {
+                inbound = BufferPool.DEFAULT.acquire(BUFFER_SIZE);
+            }
+            try {
+                if (channel.read(inbound) < 0) {
+                    finished = true;
+                }
+                peer.writeFrom(this);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void onWritable() {
+            try {
+                writeFrom(peer);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void onFailed() {
+            close();
+        }
+
+        /**
+         * Writes what the source side has read to this side and updates
+         * which events both keys wait for.
+         */
+        private void writeFrom(Endpoint source) throws IOException {
+            if (closed) {
+                return;
+            }
+
+            if (source.inbound != null) {
+                source.inbound.flip();
+                channel.write(source.inbound);
+                source.inbound.compact();
+                if (source.inbound.position() == 0) {
+                    source.releaseInbound();
+                }
+            }
+
+            try {
+                if (source.inbound != null) {
+                    // This side is full, stop reading the source until it drains
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    source.key.interestOps(source.key.interestOps() & ~SelectionKey.OP_READ);
+                    return;
+                }
+
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                if (!source.finished) {
+                    source.key.interestOps(source.key.interestOps() | SelectionKey.OP_READ);
+                    return;
+                }
+
+                // The source hung up and everything it sent has been delivered
+                source.key.interestOps(source.key.interestOps() & ~SelectionKey.OP_READ);
+                channel.shutdownOutput();
+                if (finished && peer.inbound == null) {
+                    close();
+                }
+            } catch (CancelledKeyException e) {
+                // The other side was closed under us
+                close();
+            }
+        }
+
+        private void releaseInbound() {
+            if (inbound != null) {
+                BufferPool.DEFAULT.release(inbound);
+                inbound = null;
+            }
+        }
+    }
+}
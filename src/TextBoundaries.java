@@ -0,0 +1,45 @@
+/**
+ * Finds places where text can be cut into pieces that are upper-cased
+ * separately. Upper-casing maps one code point at a time, except that
+ * some locales treat combining marks differently depending on the
+ * character before them, so a cut must neither separate a surrogate pair
+ * nor land in front of a combining mark.
+ */
+public final class TextBoundaries {
+    private TextBoundaries() {
+    }
+
+    /**
+     * Returns the last index in 1..limit at which text can be cut, or 0 if
+     * there is none. It looks at the character after the cut, so limit
+     * must be below the length of the text.
+     */
+    public static int lastSafeSplit(CharSequence text, int limit) {
+        for (int i = limit; i > 0; i--) {
+            if (!splitsPair(text, i) && !isCombiningMark(Character.codePointAt(text, i))) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the last index in 1..limit that keeps surrogate pairs
+     * together, for when text of nothing but combining marks has to be cut
+     * somewhere.
+     */
+    public static int lastCodePointSplit(CharSequence text, int limit) {
+        return splitsPair(text, limit) ? limit - 1 : limit;
+    }
+
+    private static boolean splitsPair(CharSequence text, int index) {
+        return Character.isLowSurrogate(text.charAt(index)) && Character.isHighSurrogate(text.charAt(index - 1));
+    }
+
+    private static boolean isCombiningMark(int codePoint) {
+        int type = Character.getType(codePoint);
+        return type == Character.NON_SPACING_MARK
+                || type == Character.ENCLOSING_MARK
+                || type == Character.COMBINING_SPACING_MARK;
+    }
+}
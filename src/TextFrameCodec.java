@@ -0,0 +1,191 @@
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The original line based framing: the command on one line followed by
+ * one line per argument.
+ */
+public class TextFrameCodec implements FrameCodec {
+    public static final TextFrameCodec INSTANCE = new TextFrameCodec();
+
+    public int encodedLength(Message message) {
+        int length = Utf8.encodedLength(message.getCommand()) + 1;
+        if (message.getArgs() != null) {
+            for (String arg : message.getArgs()) {
+                length += Utf8.encodedLength(arg) + 1;
+            }
+        }
+        return length;
+    }
+
+    public boolean encode(Message message, ByteBuffer out) {
+        if (encodedLength(message) > out.remaining()) {
+            return false;
+        }
+
+        Utf8.encode(message.getCommand(), out);
+        out.put((byte) '\n');
+        if (message.getArgs() != null) {
+            for (String arg : message.getArgs()) {
+                Utf8.encode(arg, out);
+                out.put((byte) '\n');
+            }
+        }
+        return true;
+    }
+
+    public Message decode(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        String line = readLine(in);
+        if (line == null) {
+            return null;
+        }
+        Command command = Command.of(line);
+
+        if (command == null) {
+            // Invalid message, throw it away. At debug level, a client flooding garbage would flood the log too
+            if (Log.isDebugEnabled()) {
+                Log.debug("Invalid command sent: " + line);
+            }
+            return null;
+        }
+
+        // Read in the specified number of lines for this command
+        int argCount = command.getArgCount();
+        List<String> args = new ArrayList<>(argCount);
+        for (int i = 0; i < argCount; i++) {
+            String arg = readLine(in);
+            if (arg == null) {
+                // Wait for the rest of the frame
+                in.position(start);
+                return null;
+            }
+            args.add(arg);
+
+            // Counted commands announce how many more lines follow in their last fixed argument
+            if (i == command.getArgCount() - 1 && command.isCounted()) {
+                argCount += Protocol.countedArgs(arg);
+            }
+        }
+        return new Message(command, args);
+    }
+
+    public int scan(ByteBuffer in, FrameScan scan) throws ProtocolException {
+        int start = in.position();
+        int limit = in.limit();
+        for (int i = start + scan.scanned; i < limit; i++) {
+            if (in.get(i) != '\n') {
+                continue;
+            }
+            // Only the command line and a counted command's count line are decoded
+            int lineStart = start + scan.partStart;
+            scan.partStart = i + 1 - start;
+            scan.parts++;
+            if (scan.parts == 1) {
+                scan.command = Command.of(lineAt(in, lineStart, i));
+                // An unknown command is a frame of one line, which decode throws away
+                scan.expectedParts = scan.command == null ? 1 : scan.command.getArgCount() + 1;
+            } else if (scan.command.isCounted() && scan.parts == scan.command.getArgCount() + 1) {
+                scan.expectedParts += Protocol.countedArgs(lineAt(in, lineStart, i));
+            }
+
+            if (scan.parts == scan.expectedParts) {
+                int length = i + 1 - start;
+                if (length > MAX_FRAME_SIZE) {
+                    throw new ProtocolException("Frame longer than " + MAX_FRAME_SIZE + " bytes");
+                }
+                return length;
+            }
+        }
+
+        scan.scanned = limit - start;
+        if (scan.scanned >= MAX_FRAME_SIZE) {
+            throw new ProtocolException("Frame longer than " + MAX_FRAME_SIZE + " bytes");
+        }
+        return -1;
+    }
+
+    public boolean transform(ByteBuffer in, String command, String response, ByteTransform transform, ByteBuffer out) {
+        int start = in.position();
+        int limit = in.limit();
+
+        // Match the command line ignoring case, commands are always ASCII
+        int i = start;
+        for (int c = 0; c < command.length(); c++, i++) {
+            if (i == limit || Character.toUpperCase((char) in.get(i)) != command.charAt(c)) {
+                return false;
+            }
+        }
+        if (i < limit && in.get(i) == '\r') {
+            i++;
+        }
+        if (i == limit || in.get(i) != '\n') {
+            return false;
+        }
+
+        // The whole argument line must be here
+        int argStart = i + 1;
+        int lineEnd = -1;
+        for (int j = argStart; j < limit; j++) {
+            if (in.get(j) == '\n') {
+                lineEnd = j;
+                break;
+            }
+        }
+        if (lineEnd < 0) {
+            return false;
+        }
+        int argEnd = lineEnd > argStart && in.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+        int outStart = out.position();
+        if (out.remaining() < response.length() + 1) {
+            return false;
+        }
+        for (int c = 0; c < response.length(); c++) {
+            out.put((byte) response.charAt(c));
+        }
+        out.put((byte) '\n');
+
+        in.position(argStart);
+        if (!transform.apply(in, argEnd - argStart, out) || !out.hasRemaining()) {
+            in.position(start);
+            out.position(outStart);
+            return false;
+        }
+        out.put((byte) '\n');
+        in.position(lineEnd + 1);
+        return true;
+    }
+
+    /** Decodes the line from start up to the newline at end without moving in's position. */
+    private static String lineAt(ByteBuffer in, int start, int end) {
+        if (end > start && in.get(end - 1) == '\r') {
+            end--;
+        }
+        int position = in.position();
+        in.position(start);
+        String line = Utf8.decode(in, end - start);
+        in.position(position);
+        return line;
+    }
+
+    private static String readLine(ByteBuffer in) throws ProtocolException {
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get(i) == '\n') {
+                // Accept both \n and \r\n line endings like BufferedReader does
+                int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+                String line = Utf8.decode(in, end - start);
+                in.position(i + 1);
+                return line;
+            }
+        }
+
+        if (in.remaining() > MAX_FRAME_SIZE) {
+            throw new ProtocolException("Line longer than " + MAX_FRAME_SIZE + " bytes");
+        }
+        return null;
+    }
+}
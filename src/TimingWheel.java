@@ -0,0 +1,145 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel that runs timers for many connections from one
+ * thread. Time is cut into ticks and each timer sits in the bucket for
+ * the tick it expires on, along with how many more turns of the wheel it
+ * has to wait. Scheduling and cancelling are O(1) and each tick only
+ * looks at one bucket.
+ *
+ * Tasks run on the wheel thread, so they should only queue work, never
+ * block on it. Timers fire up to one tick late.
+ */
+public class TimingWheel implements Runnable {
+    private long tickNanos;
+    private List<ArrayDeque<Timeout>> buckets;
+    private Queue<Timeout> pending;
+    private long startNanos;
+    private long tick;
+    private volatile boolean shouldRun = true;
+
+    public TimingWheel(String name, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+        pending = new ConcurrentLinkedQueue<>();
+        startNanos = System.nanoTime();
+
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Runs the task once after the delay. */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        return add(new Timeout(task, TimeUnit.MILLISECONDS.toNanos(delayMillis), 0));
+    }
+
+    /** Runs the task every period until the returned timeout is cancelled. */
+    public Timeout schedulePeriodic(Runnable task, long periodMillis) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        return add(new Timeout(task, periodNanos, periodNanos));
+    }
+
+    public void stop() {
+        shouldRun = false;
+    }
+
+    private Timeout add(Timeout timeout) {
+        // Only the wheel thread touches the buckets, it picks new timers up on its next tick
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void run() {
+        List<Timeout> expired = new ArrayList<>();
+
+        while (shouldRun) {
+            // Sleep until the next tick is due
+            long nextTickNanos = startNanos + (tick + 1) * tickNanos;
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(sleepNanos);
+                continue;
+            }
+            tick++;
+
+            Timeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                place(timeout);
+            }
+
+            // Collect the timers due this turn before running them, periodic ones go back into the wheel
+            Iterator<Timeout> bucket = buckets.get((int) (tick % buckets.size())).iterator();
+            while (bucket.hasNext()) {
+                timeout = bucket.next();
+                if (timeout.cancelled) {
+                    bucket.remove();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    bucket.remove();
+                    expired.add(timeout);
+                }
+            }
+
+            for (Timeout due : expired) {
+                try {
+                    due.task.run();
+                } catch (RuntimeException e) {
+                    Log.error("Timer task failed: " + e.getMessage());
+                    e.printStackTrace();
+                }
+
+                if (due.periodNanos > 0 && !due.cancelled) {
+                    // Placed with the next tick's new timers, this bucket has already been swept
+                    due.deadlineNanos += due.periodNanos;
+                    pending.add(due);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /**
+     * Puts a timer in the bucket for its deadline. Overdue timers go in the
+     * current bucket so they fire on this tick.
+     */
+    private void place(Timeout timeout) {
+        long deadlineTick = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        deadlineTick = Math.max(deadlineTick, tick);
+
+        long ticksAway = deadlineTick - tick;
+        timeout.rounds = ticksAway / buckets.size();
+        buckets.get((int) (deadlineTick % buckets.size())).add(timeout);
+    }
+
+    public static class Timeout {
+        private Runnable task;
+        private long periodNanos;
+        private long deadlineNanos;
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long delayNanos, long periodNanos) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.deadlineNanos = System.nanoTime() + delayNanos;
+        }
+
+        /** Stops the timer. It is dropped from the wheel the next time its bucket comes around. */
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Locale;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Builds the TLS contexts for servers and clients from a key store.
+ *
+ * The key store holds the server's key and certificate, and clients trust
+ * whatever certificates it holds, so a self-signed certificate made with
+ * keytool works on both ends for testing on localhost.
+ *
+ * Sessions are cached on both ends, so a client reconnecting to the same
+ * host and port resumes its session with an abbreviated handshake. TLS 1.3
+ * resumes through session tickets, and so does TLS 1.2 on Java 13 and
+ * later. Older runtimes resume TLS 1.2 sessions from the server's cache.
+ */
+public final class Tls {
+    // Enough for a reconnect storm of every client of a busy server
+    private static final int SESSION_CACHE_SIZE = 50000;
+    private static final int SESSION_TIMEOUT_SECONDS = 4 * 60 * 60;
+
+    private Tls() {
+    }
+
+    /**
+     * Loads a context from a PKCS12 (.p12 or .pfx) or JKS key store, using
+     * its keys to identify ourselves and its certificates to trust the peer.
+     */
+    public static SSLContext context(Path keyStorePath, char[] password) throws IOException, GeneralSecurityException {
+        String name = keyStorePath.getFileName().toString().toLowerCase(Locale.ROOT);
+        KeyStore keyStore = KeyStore.getInstance(name.endsWith(".p12") || name.endsWith(".pfx") ? "PKCS12" : "JKS");
+        try (InputStream in = Files.newInputStream(keyStorePath)) {
+            keyStore.load(in, password);
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        context.getServerSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        context.getServerSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        context.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        return context;
+    }
+
+    public static SSLEngine serverEngine(SSLContext context) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        return engine;
+    }
+
+    /**
+     * A client engine that checks the server's certificate is for host.
+     * The host and port also key the client's session cache, which is how
+     * reconnects find the session to resume.
+     */
+    public static SSLEngine clientEngine(SSLContext context, String host, int port) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        engine.setSSLParameters(verifyingHost(engine.getSSLParameters()));
+        return engine;
+    }
+
+    /** Turns on the same host name checks for blocking client sockets. */
+    public static SSLParameters verifyingHost(SSLParameters parameters) {
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        return parameters;
+    }
+}
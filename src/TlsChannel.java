@@ -0,0 +1,278 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ForkJoinPool;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+
+/**
+ * TLS over a non-blocking socket channel, for the event loop that owns
+ * the channel. Reads return decrypted bytes and writes take plaintext,
+ * so a socket can use it wherever it used the channel.
+ *
+ * The handshake moves forward as a side effect of reads and writes, which
+ * return 0 while it is in progress. The engine's expensive steps, its
+ * delegated tasks, run on the common pool rather than the event loop.
+ * onReady runs on the event loop whenever those finish or the handshake
+ * completes, so the socket can retry whatever was waiting.
+ *
+ * Plaintext that doesn't fit the caller's buffer stays here, see
+ * {@link #hasBufferedInput()}. Buffers come from the {@link BufferPool}
+ * while they hold bytes.
+ */
+public class TlsChannel implements ByteChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private SocketChannel channel;
+    private SSLEngine engine;
+    private EventLoop loop;
+    private Exec onReady;
+    private BufferPool bufferPool;
+
+    // Records not yet unwrapped, records not yet written and plaintext not yet read, in fill mode and null when empty
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean runningTasks;
+
+    public TlsChannel(SocketChannel channel, SSLEngine engine, EventLoop loop, Exec onReady) {
+        this.channel = channel;
+        this.engine = engine;
+        this.loop = loop;
+        this.onReady = onReady;
+        bufferPool = BufferPool.DEFAULT;
+    }
+
+    /** Starts the handshake, a client sends its hello straight away. */
+    public void beginHandshake() throws IOException {
+        engine.beginHandshake();
+        flush();
+    }
+
+    /** Whether plaintext is waiting that the last read had no room for. */
+    public boolean hasBufferedInput() {
+        return appIn != null;
+    }
+
+    /** Whether records are waiting for the channel to become writable. */
+    public boolean hasPendingOutput() {
+        return netOut != null;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = 0;
+        if (appIn == null) {
+            read = readNetwork();
+            unwrapAvailable();
+        }
+        if (appIn == null) {
+            return read < 0 || engine.isInboundDone() ? -1 : 0;
+        }
+
+        appIn.flip();
+        int length = Math.min(appIn.remaining(), dst.remaining());
+        ByteBuffer slice = appIn.duplicate();
+        slice.limit(slice.position() + length);
+        dst.put(slice);
+        appIn.position(appIn.position() + length);
+        appIn.compact();
+        if (appIn.position() == 0) {
+            appIn = release(appIn);
+        }
+        return length;
+    }
+
+    /**
+     * Encrypts as much of src as the channel takes and returns the number
+     * of plaintext bytes consumed, 0 while the handshake is in progress.
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int start = src.position();
+        while (!runningTasks && flushNetwork()) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runTasks();
+                break;
+            }
+            if (status == HandshakeStatus.NEED_UNWRAP
+                    || (status != HandshakeStatus.NEED_WRAP && !src.hasRemaining())) {
+                // Either waiting for the peer, which the read side takes care of, or done
+                break;
+            }
+            int before = src.position();
+            if (!wrap(src) || (status != HandshakeStatus.NEED_WRAP && src.position() == before)) {
+                break;
+            }
+        }
+        return src.position() - start;
+    }
+
+    /**
+     * Sends any handshake messages that are due and records waiting for the
+     * channel. Returns whether nothing is left waiting.
+     */
+    public boolean flush() throws IOException {
+        write(EMPTY);
+        return netOut == null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Says goodbye to the peer if the channel takes it right away and gives
+     * the buffers back. Closing the channel is left to the caller.
+     */
+    @Override
+    public void close() {
+        engine.closeOutbound();
+        try {
+            flush();
+        } catch (IOException e) {
+            // The peer is gone, there is nobody to say goodbye to
+        }
+        netIn = release(netIn);
+        netOut = release(netOut);
+        appIn = release(appIn);
+    }
+
+    private int readNetwork() throws IOException {
+        if (netIn == null) {
+            netIn = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+        } else if (!netIn.hasRemaining()) {
+            // A whole record is waiting for the handshake tasks, the kernel can hold the rest
+            return 0;
+        }
+        int read = channel.read(netIn);
+        if (netIn.position() == 0) {
+            netIn = release(netIn);
+        }
+        return read;
+    }
+
+    /** Unwraps every whole record that has arrived, moving the handshake along on the way. */
+    private void unwrapAvailable() throws IOException {
+        while (!runningTasks) {
+            HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == HandshakeStatus.NEED_TASK) {
+                runTasks();
+                return;
+            }
+            if (status == HandshakeStatus.NEED_WRAP) {
+                if (!wrap(EMPTY)) {
+                    return;
+                }
+                continue;
+            }
+            if (netIn == null) {
+                return;
+            }
+
+            if (appIn == null) {
+                appIn = bufferPool.acquire(engine.getSession().getApplicationBufferSize());
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+                if (netIn.position() == 0) {
+                    netIn = release(netIn);
+                }
+                if (appIn.position() == 0) {
+                    appIn = release(appIn);
+                }
+            }
+            checkFinished(result);
+
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    // More plaintext arrived than the last read took, make room for another record
+                    if (appIn != null) {
+                        appIn = bufferPool.grow(appIn, appIn.position() + engine.getSession().getApplicationBufferSize());
+                    }
+                    break;
+                case BUFFER_UNDERFLOW:
+                    // The rest of the record is still on its way
+                    return;
+                case CLOSED:
+                    return;
+                default:
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        return;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Wraps src, or a handshake message if one is due, and writes the
+     * record. Returns whether it was written in full.
+     */
+    private boolean wrap(ByteBuffer src) throws IOException {
+        if (netOut == null) {
+            netOut = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+        }
+        SSLEngineResult result = engine.wrap(src, netOut);
+        checkFinished(result);
+        if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+            netOut = bufferPool.grow(netOut, netOut.position() + engine.getSession().getPacketBufferSize());
+        }
+        if (netOut.position() == 0) {
+            netOut = release(netOut);
+            // Nothing to send, so nothing can be holding us up unless the engine is closed
+            return result.getStatus() != SSLEngineResult.Status.CLOSED;
+        }
+        return flushNetwork();
+    }
+
+    private boolean flushNetwork() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+        netOut.flip();
+        channel.write(netOut);
+        boolean writtenAll = !netOut.hasRemaining();
+        netOut.compact();
+        if (writtenAll) {
+            netOut = release(netOut);
+        }
+        return writtenAll;
+    }
+
+    private void checkFinished(SSLEngineResult result) {
+        if (result.getHandshakeStatus() == HandshakeStatus.FINISHED) {
+            // Let the socket send what it held back, once we are out of its read or write
+            loop.execute(onReady::exec);
+        }
+    }
+
+    /** Runs the handshake's delegated tasks off the event loop, then lets the socket carry on. */
+    private void runTasks() {
+        runningTasks = true;
+        ForkJoinPool.commonPool().execute(() -> {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+            loop.execute(() -> {
+                runningTasks = false;
+                onReady.exec();
+            });
+        });
+    }
+
+    private ByteBuffer release(ByteBuffer buffer) {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Allows a steady rate of events with bursts up to a fixed size. The
+ * bucket refills continuously at the rate and holds at most the burst.
+ *
+ * Not thread-safe, each connection's reader owns its own bucket.
+ */
+public class TokenBucket {
+    private double tokensPerNano;
+    private double burst;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double perSecond, int burst) {
+        tokensPerNano = perSecond / 1_000_000_000.0;
+        this.burst = burst;
+        tokens = burst;
+        lastRefillNanos = System.nanoTime();
+    }
+
+    /** Returns whether an event may happen now, without taking its token. */
+    public boolean hasToken() {
+        refill();
+        return tokens >= 1;
+    }
+
+    /** Takes a token if there is one. */
+    public boolean tryAcquire() {
+        if (!hasToken()) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /** Returns how long until the next token, 0 if there is one now. */
+    public long nanosUntilToken() {
+        refill();
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}